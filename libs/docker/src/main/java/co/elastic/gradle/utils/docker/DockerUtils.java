@@ -19,6 +19,7 @@
 package co.elastic.gradle.utils.docker;
 
 import co.elastic.gradle.utils.PrefixingOutputStream;
+import co.elastic.gradle.utils.ProcessRunner;
 import co.elastic.gradle.utils.RetryUtils;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
@@ -70,6 +71,15 @@ public class DockerUtils {
     }
 
     public ExecResult exec(Action<? super ExecSpec> action, boolean applyMacWorkaround) {
+        Map<String, Object> environment = baseEnvironment(applyMacWorkaround);
+        return execOperations.exec(spec -> {
+            action.execute(spec);
+            environment.putAll(spec.getEnvironment());
+            spec.setEnvironment(environment);
+        });
+    }
+
+    private static Map<String, Object> baseEnvironment(boolean applyMacWorkaround) {
         Map<String, Object> environment = new HashMap<>();
         // Only pass specific env vars for more reproducible builds
         if (applyMacWorkaround) {
@@ -78,17 +88,24 @@ public class DockerUtils {
         environment.put("LANG", System.getenv("LANG"));
         environment.put("LC_ALL", System.getenv("LC_ALL"));
         environment.put("DOCKER_BUILDKIT", "1");
-        return execOperations.exec(spec -> {
-            action.execute(spec);
-            environment.putAll(spec.getEnvironment());
-            spec.setEnvironment(environment);
-        });
+        return environment;
     }
 
     public ExecResult exec(Action<? super ExecSpec> action) {
         return exec(action, OperatingSystem.current().isMacOsX());
     }
 
+    /**
+     * The environment {@link #exec(Action)} runs docker with, for running it through a {@link ProcessRunner}
+     */
+    public static Map<String, String> environment() {
+        Map<String, Object> environment = baseEnvironment(OperatingSystem.current().isMacOsX());
+        environment.putAll(System.getenv());
+        Map<String, String> result = new HashMap<>();
+        environment.forEach((key, value) -> result.put(key, value == null ? null : value.toString()));
+        return result;
+    }
+
     /**
      * Adds or updates the PATH environment variable to work around a Docker Desktop for Mac issue.
      * See https://github.com/elastic/cloud/issues/79374 for more context
@@ -0,0 +1,184 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the super class and the runtime visible annotations of a class straight from the class file, so we don't have
+ * to load, link and initialize the class just to check if it's annotated.
+ * <p>
+ * Class files read by an instance are cached until their size or last modified time changes, an instance is kept for
+ * the duration of a build by {@link TestClassFinder}. Like directories in {@link ClassNameIndex}, files modified within
+ * the resolution of the file system timestamps are not cached.
+ */
+class ClassFileScanner {
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final Map<Path, CachedClassInfo> cache = new ConcurrentHashMap<>();
+
+    record ClassInfo(Optional<String> superClass, Set<String> annotations) {
+        boolean isAnnotatedWith(String annotation) {
+            return annotations.contains(annotation);
+        }
+    }
+
+    private record CachedClassInfo(long size, long lastModified, ClassInfo info) {
+    }
+
+    ClassInfo scan(Path classFile) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(classFile, BasicFileAttributes.class);
+            final long size = attributes.size();
+            final long lastModified = attributes.lastModifiedTime().toMillis();
+            final CachedClassInfo cached = cache.get(classFile);
+            if (cached != null && cached.size() == size && cached.lastModified() == lastModified) {
+                return cached.info();
+            }
+            final ClassInfo info;
+            try (InputStream in = Files.newInputStream(classFile)) {
+                info = scan(in);
+            }
+            if (System.currentTimeMillis() - lastModified > ClassNameIndex.RACY_INTERVAL_MILLIS) {
+                cache.put(classFile, new CachedClassInfo(size, lastModified, info));
+            } else {
+                cache.remove(classFile);
+            }
+            return info;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read class file " + classFile, e);
+        }
+    }
+
+    /**
+     * @see <a href="https://docs.oracle.com/javase/specs/jvms/se17/html/jvms-4.html">The class File Format</a>
+     */
+    static ClassInfo scan(InputStream classFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.skipNBytes(4); // minor and major version
+
+        final int constantPoolCount = in.readUnsignedShort();
+        final String[] utf8 = new String[constantPoolCount];
+        final int[] classNames = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1 -> utf8[i] = in.readUTF();
+                case 7 -> classNames[i] = in.readUnsignedShort();
+                case 8, 16, 19, 20 -> in.skipNBytes(2);
+                case 15 -> in.skipNBytes(3);
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.skipNBytes(4);
+                case 5, 6 -> {
+                    in.skipNBytes(8);
+                    // longs and doubles take up two entries
+                    i++;
+                }
+                default -> throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        in.skipNBytes(4); // access flags and this class
+        final int superClass = in.readUnsignedShort();
+        in.skipNBytes(2L * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        final Set<String> annotations = new HashSet<>();
+        final int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; i++) {
+            final String name = utf8[in.readUnsignedShort()];
+            final int length = in.readInt();
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                final int count = in.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    annotations.add(descriptorToClassName(utf8[in.readUnsignedShort()]));
+                    skipElementValuePairs(in);
+                }
+            } else {
+                in.skipNBytes(length);
+            }
+        }
+
+        return new ClassInfo(
+                superClass == 0 ? Optional.empty() : Optional.of(utf8[classNames[superClass]].replace('/', '.')),
+                annotations
+        );
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        final int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipNBytes(6); // access flags, name and descriptor
+            final int attributesCount = in.readUnsignedShort();
+            for (int j = 0; j < attributesCount; j++) {
+                in.skipNBytes(2);
+                in.skipNBytes(Integer.toUnsignedLong(in.readInt()));
+            }
+        }
+    }
+
+    private static void skipElementValuePairs(DataInputStream in) throws IOException {
+        final int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            in.skipNBytes(2); // element name
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream in) throws IOException {
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z', 's', 'c' -> in.skipNBytes(2);
+            case 'e' -> in.skipNBytes(4);
+            case '@' -> {
+                in.skipNBytes(2);
+                skipElementValuePairs(in);
+            }
+            case '[' -> {
+                final int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(in);
+                }
+            }
+            default -> throw new IOException("Unknown annotation element tag " + (char) tag);
+        }
+    }
+
+    private static String descriptorToClassName(String descriptor) {
+        // e.g. Lorg/junit/Ignore;
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Index of the class files in classes directories, an instance is kept for the duration of a build by
+ * {@link TestClassFinder}.
+ * <p>
+ * Adding, removing or renaming a file changes the last modified time of the directory it's in, so the index only needs
+ * to check the time of each directory and list the ones that changed, instead of walking the whole tree every time.
+ * Directories that changed within the resolution of the file system timestamps are not cached, as these could still
+ * change without the time changing.
+ */
+class ClassNameIndex {
+
+    // Files and directories modified this recently could still change without their last modified time changing
+    static final long RACY_INTERVAL_MILLIS = 2000;
+
+    private final Map<Path, DirectoryEntry> directories = new ConcurrentHashMap<>();
+
+    private record DirectoryEntry(long lastModified, List<String> classFiles, List<String> subdirectories) {
+    }
+
+    record ClassFile(String className, Path path) {
+    }
+
+    List<ClassFile> classFiles(Path classesDir) {
+        final List<ClassFile> result = new ArrayList<>();
+        collect(classesDir, "", result);
+        return result;
+    }
+
+    private void collect(Path directory, String packagePrefix, List<ClassFile> result) {
+        final DirectoryEntry entry = entry(directory);
+        if (entry == null) {
+            return;
+        }
+        for (String classFile : entry.classFiles()) {
+            result.add(new ClassFile(
+                    packagePrefix + classFile.substring(0, classFile.length() - ".class".length()),
+                    directory.resolve(classFile)
+            ));
+        }
+        // Packages are independent of each other, so the top level ones are indexed in parallel
+        final Stream<String> subdirectories = packagePrefix.isEmpty() ?
+                entry.subdirectories().parallelStream() :
+                entry.subdirectories().stream();
+        subdirectories
+                .map(subdirectory -> {
+                    final List<ClassFile> classes = new ArrayList<>();
+                    collect(directory.resolve(subdirectory), packagePrefix + subdirectory + ".", classes);
+                    return classes;
+                })
+                .forEachOrdered(result::addAll);
+    }
+
+    private DirectoryEntry entry(Path directory) {
+        try {
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                directories.remove(directory);
+                return null;
+            }
+            final long lastModified = attributes.lastModifiedTime().toMillis();
+            final DirectoryEntry cached = directories.get(directory);
+            if (cached != null && cached.lastModified() == lastModified) {
+                return cached;
+            }
+            final List<String> classFiles = new ArrayList<>();
+            final List<String> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    final String name = child.getFileName().toString();
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        subdirectories.add(name);
+                    } else if (name.endsWith(".class")) {
+                        classFiles.add(name);
+                    }
+                }
+            }
+            classFiles.sort(null);
+            subdirectories.sort(null);
+            final DirectoryEntry entry = new DirectoryEntry(lastModified, classFiles, subdirectories);
+            if (System.currentTimeMillis() - lastModified > RACY_INTERVAL_MILLIS) {
+                directories.put(directory, entry);
+            } else {
+                directories.remove(directory);
+            }
+            return entry;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list " + directory, e);
+        }
+    }
+}
@@ -26,12 +26,36 @@ import org.apache.commons.io.IOUtils;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ExtractCompressedTar {
 
+    // Entries up to this size are read into memory and written by the writer threads, larger ones are streamed to
+    // disk by the thread reading the archive.
+    private static final int MAX_BUFFERED_ENTRY = 16 * 1024 * 1024;
+    // Upper limit of memory used by entries waiting to be written
+    private static final int MAX_BUFFERED_BYTES = 128 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int WRITER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    // Archive to the directory its extraction is cached in, see cacheExtraction
+    private static final Map<Path, Path> CACHES = new ConcurrentHashMap<>();
+    private static final Map<Path, ReadWriteLock> CACHE_LOCKS = new ConcurrentHashMap<>();
+
     public static InputStream uncompressedInputStream(final Path archive) throws IOException {
         InputStream result;
         InputStream imageStream = new BufferedInputStream(
@@ -53,23 +77,403 @@ public class ExtractCompressedTar {
         return result;
     }
 
+    /**
+     * Extract the archive, preserving file modes, symbolic links and hard links.
+     * <p>
+     * Decompression, reading the tar entries and writing files happen on separate threads, so that reading the archive
+     * doesn't wait for the disk and the other way around.
+     * Links are created after all the files have been written, so they can't be used to write outside the destination,
+     * and directory modes are applied last so that read only directories don't prevent writing their contents.
+     */
     public static void extract(final Path archive, final Path destination) throws IOException {
         Files.createDirectories(destination.getParent());
-        TarArchiveInputStream tarStream = new TarArchiveInputStream(uncompressedInputStream(archive));
-        TarArchiveEntry entry;
-        while ((entry = tarStream.getNextTarEntry()) != null) {
-            Path entryPath = destination.resolve(entry.getName());
+        final Path root = destination.toAbsolutePath().normalize();
+        final boolean posix = root.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            // A previous extraction might have left read only directories that we need to write to
+            makeDirectoriesWritable(root);
+        }
+
+        final ExecutorService decompressor = Executors.newSingleThreadExecutor(daemonThreads("tar-decompress"));
+        final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, daemonThreads("tar-write"));
+        final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+        final List<Future<?>> writes = new ArrayList<>();
+        final List<TarArchiveEntry> links = new ArrayList<>();
+        final Map<Path, Integer> directoryModes = new LinkedHashMap<>();
+
+        try (ChunkInputStream uncompressed = new ChunkInputStream()) {
+            final Future<?> decompression = decompressor.submit(() -> uncompressed.fill(archive));
+            try {
+                readEntries(new TarArchiveInputStream(uncompressed), root, posix, writers, bufferedBytes, writes, links, directoryModes);
+            } catch (IOException | RuntimeException e) {
+                // A failed decompression shows up as a truncated archive, report the actual cause instead
+                if (decompression.isDone()) {
+                    await(decompression);
+                }
+                throw e;
+            }
+            // The tar stream might have interpreted a failed decompression as the end of the archive
+            await(decompression);
+            for (Future<?> write : writes) {
+                await(write);
+            }
+        } finally {
+            decompressor.shutdownNow();
+            writers.shutdownNow();
+        }
+
+        for (TarArchiveEntry link : links) {
+            createLink(root, link);
+        }
+        if (posix) {
+            // Innermost directories first, so we don't lose the permission to change the ones inside
+            final List<Path> directories = new ArrayList<>(directoryModes.keySet());
+            Collections.reverse(directories);
+            for (Path directory : directories) {
+                setMode(directory, directoryModes.get(directory), true);
+            }
+        }
+    }
+
+    /**
+     * Cache the extraction of the archive by {@link #extractCached(Path, Path)} in the given directory until the
+     * returned handle is closed, which deletes it again.
+     * <p>
+     * Meant to be used by the task consuming the archive with a directory it owns, e.g. its temporary directory, so the
+     * extracted files don't end up next to an archive that belongs to another task, and don't outlive the task.
+     */
+    public static Closeable cacheExtraction(final Path archive, final Path cacheDirectory) throws IOException {
+        final Path key = archive.toAbsolutePath().normalize();
+        // Archives of different projects often have the same name
+        final Path cache = cacheDirectory.resolve(
+                key.getFileName() + "-" + Integer.toHexString(key.toString().hashCode()) + ".extracted"
+        );
+        Files.createDirectories(cacheDirectory);
+        CACHES.put(key, cache);
+        return () -> {
+            CACHES.remove(key, cache);
+            final ReadWriteLock lock = cacheLock(cache);
+            lock.writeLock().lock();
+            try {
+                deleteRecursively(cache);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #extract(Path, Path)}, but when the extraction of the archive is cached by
+     * {@link #cacheExtraction(Path, Path)} it's only extracted the first time. The extracted files are then hard linked
+     * to the destination, so using the archive again, e.g. when Jib retries a push, doesn't extract it again.
+     * <p>
+     * Files in the destination share their contents with the cache, so they must not be modified.
+     */
+    public static void extractCached(final Path source, final Path destination) throws IOException {
+        final Path archive = source.toAbsolutePath().normalize();
+        final Path cache = CACHES.get(archive);
+        if (cache == null) {
+            extract(archive, destination);
+            return;
+        }
+        final Path marker = cache.resolve(".archive");
+        final String key = archive + "\n" + Files.size(archive) + "\n" +
+                           Files.getLastModifiedTime(archive).toMillis();
+        // Linking only needs the cache to stay in place, replacing it has to wait until nobody is linking from it
+        final ReadWriteLock lock = cacheLock(cache);
+        lock.readLock().lock();
+        try {
+            if (!isCurrent(marker, key)) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    // Might have been extracted while we were waiting for the lock
+                    if (!isCurrent(marker, key)) {
+                        deleteRecursively(cache);
+                        extract(archive, cache.resolve("contents"));
+                        Files.writeString(marker, key);
+                    }
+                } finally {
+                    // Downgrade, so nobody can replace it before we linked it
+                    lock.readLock().lock();
+                    lock.writeLock().unlock();
+                }
+            }
+            linkTree(cache.resolve("contents"), destination);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean isCurrent(Path marker, String key) throws IOException {
+        return Files.exists(marker) && Files.readString(marker).equals(key);
+    }
+
+    private static ReadWriteLock cacheLock(Path cache) {
+        return CACHE_LOCKS.computeIfAbsent(cache, it -> new ReentrantReadWriteLock());
+    }
 
+    private static void linkTree(Path source, Path destination) throws IOException {
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                final Path target = destination.resolve(source.relativize(path).toString());
+                if (Files.isSymbolicLink(path)) {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(path, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                } else if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.deleteIfExists(target);
+                    try {
+                        Files.createLink(target, path);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // e.g. the destination is on a different file system
+                        Files.copy(path, target, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            final List<Path> paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            // Directories extracted from the archive might be read only
+            makeDirectoriesWritable(path);
+            for (Path each : paths) {
+                Files.delete(each);
+            }
+        }
+    }
+
+    private static void makeDirectoriesWritable(Path path) throws IOException {
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.filter(each -> Files.isDirectory(each, LinkOption.NOFOLLOW_LINKS))
+                    .forEach(each -> each.toFile().setWritable(true, true));
+        }
+    }
+
+    private static void readEntries(
+            TarArchiveInputStream tarStream,
+            Path root,
+            boolean posix,
+            ExecutorService writers,
+            Semaphore bufferedBytes,
+            List<Future<?>> writes,
+            List<TarArchiveEntry> links,
+            Map<Path, Integer> directoryModes
+    ) throws IOException {
+        final ReadableByteChannel entryChannel = Channels.newChannel(tarStream);
+        final Map<Path, Future<?>> pendingWrites = new HashMap<>();
+        TarArchiveEntry entry;
+        while ((entry = tarStream.getNextEntry()) != null) {
+            final Path entryPath = resolve(root, entry.getName());
             if (entry.isDirectory()) {
                 Files.createDirectories(entryPath);
+                directoryModes.put(entryPath, entry.getMode());
+            } else if (entry.isSymbolicLink() || entry.isLink()) {
+                links.add(entry);
             } else {
                 if (entryPath.getParent() != null) {
                     Files.createDirectories(entryPath.getParent());
                 }
-                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(entryPath))) {
-                    IOUtils.copy(tarStream, out);
+                final int mode = entry.getMode();
+                final long size = entry.getSize();
+                // The archive can have the same file more than once, the last one wins so earlier writes of it have
+                // to be done before this one starts
+                final Future<?> previous = pendingWrites.remove(entryPath);
+                if (previous != null) {
+                    await(previous);
+                }
+                if (size > MAX_BUFFERED_ENTRY) {
+                    try (FileChannel channel = openForWrite(entryPath)) {
+                        long position = 0;
+                        while (position < size) {
+                            final long transferred = channel.transferFrom(entryChannel, position, size - position);
+                            if (transferred == 0) {
+                                throw new EOFException("Unexpected end of archive in " + entry.getName());
+                            }
+                            position += transferred;
+                        }
+                    }
+                    setMode(entryPath, mode, posix);
+                } else {
+                    final byte[] contents = new byte[(int) size];
+                    IOUtils.readFully(tarStream, contents);
+                    bufferedBytes.acquireUninterruptibly(contents.length);
+                    final Future<?> write = writers.submit(() -> {
+                        try {
+                            write(entryPath, contents);
+                            setMode(entryPath, mode, posix);
+                        } finally {
+                            bufferedBytes.release(contents.length);
+                        }
+                        return null;
+                    });
+                    writes.add(write);
+                    pendingWrites.put(entryPath, write);
+                }
+            }
+        }
+    }
+
+    private static Path resolve(Path root, String name) throws IOException {
+        final Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Archive entry " + name + " is outside of " + root);
+        }
+        return path;
+    }
+
+    private static FileChannel openForWrite(Path path) throws IOException {
+        // Links from a previous extraction would be followed, and the file might be shared with a hard link
+        Files.deleteIfExists(path);
+        return FileChannel.open(
+                path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                LinkOption.NOFOLLOW_LINKS
+        );
+    }
+
+    private static void write(Path path, byte[] contents) throws IOException {
+        try (FileChannel channel = openForWrite(path)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(contents);
+            // A single write of the whole file lets the file system allocate it in one go
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+        }
+    }
+
+    private static void createLink(Path root, TarArchiveEntry entry) throws IOException {
+        final Path entryPath = resolve(root, entry.getName());
+        if (entryPath.getParent() != null) {
+            Files.createDirectories(entryPath.getParent());
+        }
+        Files.deleteIfExists(entryPath);
+        if (entry.isSymbolicLink()) {
+            Files.createSymbolicLink(entryPath, entryPath.getFileSystem().getPath(entry.getLinkName()));
+        } else {
+            final Path target = resolve(root, entry.getLinkName());
+            try {
+                Files.createLink(entryPath, target);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(target, entryPath, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+    }
+
+    private static void setMode(Path path, int mode, boolean posix) throws IOException {
+        if (!posix) {
+            return;
+        }
+        final PosixFilePermission[] all = PosixFilePermission.values();
+        final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < all.length; i++) {
+            if ((mode & (1 << (all.length - 1 - i))) != 0) {
+                permissions.add(all[i]);
+            }
+        }
+        Files.setPosixFilePermissions(path, permissions);
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting archive");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Hands the decompressed archive from the decompression thread to the thread reading the tar entries, in chunks
+     * through a bounded queue.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(16);
+        private byte[] current = null;
+        private int position = 0;
+        private volatile boolean closed = false;
+
+        Void fill(Path archive) throws IOException, InterruptedException {
+            try (InputStream in = uncompressedInputStream(archive)) {
+                while (!closed) {
+                    final byte[] chunk = in.readNBytes(CHUNK_SIZE);
+                    if (chunk.length == 0) {
+                        break;
+                    }
+                    chunks.put(chunk);
+                }
+            } finally {
+                // Let the reader know there won't be more, also if decompression failed
+                chunks.put(END);
+            }
+            return null;
+        }
+
+        private boolean next() throws IOException {
+            while (current == null || position == current.length) {
+                if (current == END) {
+                    return false;
+                }
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading archive");
                 }
+                position = 0;
             }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? current[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            final int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            // unblock the decompression thread if it's waiting for space
+            chunks.clear();
         }
     }
 
@@ -28,13 +28,15 @@ import org.gradle.api.tasks.testing.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.lang.annotation.Annotation;
+import java.lang.annotation.Inherited;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -54,56 +56,82 @@ public class GradleUtils {
                 .orElse(false);
     }
 
+    /**
+     * Lists the classes in the given directories. Use {@link TestClassFinder} to not list the same directories again
+     * for every call in a build.
+     */
     public static List<String> testClassNames(Set<File> classesDirs) {
-        try(Stream<String> s = classesDirs.stream()
-                .filter(file -> {
-                    final boolean exists = file.exists();
-                    return exists;
-                })
-                .flatMap(classesDir -> {
-                    Path prefix = classesDir.toPath();
-                    try {
-                        return Files.walk(classesDir.toPath())
-                                .map(other -> {
-                                    final Path relativize = prefix.relativize(other);
-                                    return relativize;
-                                })
-                                .filter(it -> it.toString().endsWith(".class"))
-                                .map(it ->
-                                        it.toString().replace("/", ".")
-                                                .substring(0, it.toString().lastIndexOf(".class"))
-                                );
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                })) {
-            return s.collect(Collectors.toList());
-        }
-
+        return testClassNames(new ClassNameIndex(), classesDirs);
+    }
 
+    static List<String> testClassNames(ClassNameIndex index, Set<File> classesDirs) {
+        return new ArrayList<>(classFilesByName(index, classesDirs).keySet());
+    }
 
+    private static Map<String, Path> classFilesByName(ClassNameIndex index, Set<File> classesDirs) {
+        final Map<String, Path> result = new LinkedHashMap<>();
+        classesDirs.parallelStream()
+                .map(classesDir -> index.classFiles(classesDir.toPath()))
+                .forEachOrdered(classFiles -> classFiles.forEach(classFile ->
+                        result.putIfAbsent(classFile.className(), classFile.path())
+                ));
+        return result;
     }
 
+    /**
+     * Finds the classes annotated with the given annotation, the same way {@link Class#isAnnotationPresent} would,
+     * but reading the class files instead of loading the classes. Use {@link TestClassFinder} to not read the same
+     * class files again for every call in a build.
+     */
     public static String[] classNamesByAnnotation(Set<File> classesDir, List<URL> classpath, String annotation) {
-        final URLClassLoader loader = URLClassLoader.newInstance(classpath.toArray(URL[]::new));
-        Class<? extends Annotation> annotationClass;
-        try {
-            annotationClass = loader.loadClass(annotation).asSubclass(Annotation.class);
-        } catch (ClassNotFoundException e) {
-            throw new GradleException("Failed to load annotation class", e);
+        return classNamesByAnnotation(new ClassNameIndex(), new ClassFileScanner(), classesDir, classpath, annotation);
+    }
+
+    static String[] classNamesByAnnotation(
+            ClassNameIndex index, ClassFileScanner scanner, Set<File> classesDir, List<URL> classpath, String annotation
+    ) {
+        try (URLClassLoader loader = URLClassLoader.newInstance(classpath.toArray(URL[]::new))) {
+            final ClassFileScanner.ClassInfo annotationClass = scanResource(loader, annotation)
+                    .orElseThrow(() -> new GradleException("Failed to load annotation class " + annotation));
+            final boolean inherited = annotationClass.isAnnotatedWith(Inherited.class.getName());
+
+            final Map<String, Path> classFiles = classFilesByName(index, classesDir);
+            final Map<String, Optional<ClassFileScanner.ClassInfo>> classpathClasses = new ConcurrentHashMap<>();
+            return classFiles.entrySet()
+                    .parallelStream()
+                    .filter(entry -> {
+                        ClassFileScanner.ClassInfo info = scanner.scan(entry.getValue());
+                        while (!info.isAnnotatedWith(annotation)) {
+                            if (!inherited || info.superClass().isEmpty()) {
+                                return false;
+                            }
+                            final String superClass = info.superClass().get();
+                            final Optional<ClassFileScanner.ClassInfo> superInfo = classFiles.containsKey(superClass) ?
+                                    Optional.of(scanner.scan(classFiles.get(superClass))) :
+                                    classpathClasses.computeIfAbsent(superClass, name -> scanResource(loader, name));
+                            if (superInfo.isEmpty()) {
+                                return false;
+                            }
+                            info = superInfo.get();
+                        }
+                        return true;
+                    })
+                    .map(Map.Entry::getKey)
+                    .toArray(String[]::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        final List<String> strings = testClassNames(classesDir);
-        return strings
-                .stream()
-                .filter(name -> {
-                    try {
-                        return loader.loadClass(name).isAnnotationPresent(annotationClass);
-                    } catch (ClassNotFoundException e) {
-                        throw new GradleException("Failed to load test class", e);
-                    }
-                })
-                .toArray(String[]::new);
+    private static Optional<ClassFileScanner.ClassInfo> scanResource(ClassLoader loader, String className) {
+        try (InputStream in = loader.getResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (in == null) {
+                return Optional.empty();
+            }
+            return Optional.of(ClassFileScanner.scan(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read class " + className, e);
+        }
     }
 
     public static boolean isCi() {
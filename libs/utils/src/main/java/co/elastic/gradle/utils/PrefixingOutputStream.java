@@ -21,11 +21,12 @@ package co.elastic.gradle.utils;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
 public class PrefixingOutputStream extends OutputStream {
 
     private final byte[] prefix;
-    private boolean firstByteWritten = false;
+    private boolean atLineStart = true;
     private final OutputStream delegate;
 
     public PrefixingOutputStream(String prefix, OutputStream delegate) {
@@ -35,14 +36,42 @@ public class PrefixingOutputStream extends OutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        if (!firstByteWritten) {
+        if (atLineStart) {
             delegate.write(prefix);
-            firstByteWritten = true;
+            atLineStart = false;
         }
         delegate.write(b);
-        if (b == '\n') {
-            delegate.write(prefix);
+        atLineStart = b == '\n';
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        final int end = off + len;
+        int lineStart = off;
+        // Write whole lines to the delegate rather than one byte at a time, process output is usually read in
+        // large chunks
+        while (lineStart < end) {
+            if (atLineStart) {
+                delegate.write(prefix);
+                atLineStart = false;
+            }
+            int lineEnd = lineStart;
+            while (lineEnd < end && b[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd < end) {
+                lineEnd++;
+                atLineStart = true;
+            }
+            delegate.write(b, lineStart, lineEnd - lineStart);
+            lineStart = lineEnd;
         }
     }
 
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Build wide service to run external tools.
+ * <p>
+ * Output is handed to consumers as a stream while the process runs, so large outputs can be parsed as they are
+ * produced rather than being collected in memory first. The service limits how many processes run at the same time,
+ * enforces timeouts and logs how much time was spent running each tool at the end of the build.
+ */
+public abstract class ProcessRunner implements BuildService<ProcessRunner.Params>, AutoCloseable {
+
+    public static final String NAME = "processRunner";
+
+    private static final Logger logger = Logging.getLogger(ProcessRunner.class);
+
+    public interface Params extends BuildServiceParameters {
+        Property<Integer> getMaxConcurrentProcesses();
+    }
+
+    public static Provider<ProcessRunner> register(Gradle gradle) {
+        return gradle.getSharedServices().registerIfAbsent(
+                NAME,
+                ProcessRunner.class,
+                spec -> spec.getParameters().getMaxConcurrentProcesses()
+                        .convention(Runtime.getRuntime().availableProcessors())
+        );
+    }
+
+    private final Semaphore processes;
+    private final ExecutorService streams = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "process-runner-output");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+
+    public ProcessRunner() {
+        processes = new Semaphore(getParameters().getMaxConcurrentProcesses().get());
+    }
+
+    /**
+     * Consumes the output of a process as it's being written.
+     * The consumer has to read the stream to the end, or the process might block.
+     */
+    @FunctionalInterface
+    public interface OutputConsumer {
+        void consume(InputStream output) throws IOException;
+
+        static OutputConsumer to(OutputStream out) {
+            return output -> output.transferTo(out);
+        }
+
+        static OutputConsumer lines(Consumer<String> lineConsumer) {
+            return output -> {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineConsumer.accept(line);
+                }
+            };
+        }
+
+        static OutputConsumer discard() {
+            return output -> output.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    public static class Invocation {
+        private final List<String> command;
+        private File workingDir = null;
+        private Map<String, String> environment = null;
+        private Duration timeout = null;
+        private OutputConsumer stdout = OutputConsumer.discard();
+        private OutputConsumer stderr = OutputConsumer.discard();
+        private boolean ignoreExitValue = false;
+
+        private Invocation(List<String> command) {
+            this.command = command;
+        }
+
+        public Invocation workingDir(File workingDir) {
+            this.workingDir = workingDir;
+            return this;
+        }
+
+        /**
+         * Replaces the environment of the process, entries without a value are left out.
+         */
+        public Invocation environment(Map<String, String> environment) {
+            this.environment = environment;
+            return this;
+        }
+
+        public Invocation timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Invocation stdout(OutputConsumer stdout) {
+            this.stdout = stdout;
+            return this;
+        }
+
+        public Invocation stderr(OutputConsumer stderr) {
+            this.stderr = stderr;
+            return this;
+        }
+
+        public Invocation ignoreExitValue() {
+            this.ignoreExitValue = true;
+            return this;
+        }
+    }
+
+    public record Result(int exitValue, Duration duration) {
+    }
+
+    public static Invocation command(String... command) {
+        return command(Arrays.asList(command));
+    }
+
+    public static Invocation command(List<String> command) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("No command to run");
+        }
+        return new Invocation(List.copyOf(command));
+    }
+
+    public Result run(Invocation invocation) {
+        final String description = String.join(" ", invocation.command);
+        try {
+            processes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting to run " + description, e);
+        }
+        final long start = System.nanoTime();
+        try {
+            final ProcessBuilder builder = new ProcessBuilder(invocation.command);
+            if (invocation.workingDir != null) {
+                builder.directory(invocation.workingDir);
+            }
+            if (invocation.environment != null) {
+                builder.environment().clear();
+                invocation.environment.forEach((key, value) -> {
+                    if (value != null) {
+                        builder.environment().put(key, value);
+                    }
+                });
+            }
+            final Process process = builder.start();
+            try {
+                process.getOutputStream().close();
+                final Future<?> stdout = consume(process.getInputStream(), invocation.stdout);
+                final Future<?> stderr = consume(process.getErrorStream(), invocation.stderr);
+                if (invocation.timeout == null) {
+                    process.waitFor();
+                } else if (!process.waitFor(invocation.timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new GradleException("Timed out after " + invocation.timeout + " running " + description);
+                }
+                await(stdout, description);
+                await(stderr, description);
+            } finally {
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+            final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+            timings.computeIfAbsent(executableName(invocation.command.get(0)), key -> new Timing()).record(duration);
+            logger.info("Ran `{}` in {}", description, duration);
+            if (!invocation.ignoreExitValue && process.exitValue() != 0) {
+                throw new GradleException("Process `" + description + "` finished with non-zero exit value " +
+                                          process.exitValue());
+            }
+            return new Result(process.exitValue(), duration);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to run " + description, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while running " + description, e);
+        } finally {
+            processes.release();
+        }
+    }
+
+    private Future<?> consume(InputStream output, OutputConsumer consumer) {
+        return streams.submit(() -> {
+            drain(output, consumer);
+            return null;
+        });
+    }
+
+    static void drain(InputStream output, OutputConsumer consumer) throws IOException {
+        try (output) {
+            try {
+                // Consumers such as JSON parsers might close the stream once they are done with it, but we still need
+                // to drain it
+                consumer.consume(new FilterInputStream(output) {
+                    @Override
+                    public void close() {
+                    }
+                });
+            } finally {
+                // In case the consumer stopped early or failed, so the process doesn't block writing
+                output.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+    }
+
+    private static void await(Future<?> future, String description) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new GradleException("Failed to process the output of " + description, e.getCause());
+        }
+    }
+
+    private static String executableName(String executable) {
+        return new File(executable).getName();
+    }
+
+    @Override
+    public void close() {
+        streams.shutdownNow();
+        timings.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> logger.info(
+                        "Ran {} {} times, taking {} in total and {} at most",
+                        entry.getKey(),
+                        entry.getValue().count.get(),
+                        Duration.ofNanos(entry.getValue().totalNanos.get()),
+                        Duration.ofNanos(entry.getValue().maxNanos.get())
+                ));
+    }
+
+    private static class Timing {
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(Duration duration) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(duration.toNanos());
+            maxNanos.accumulateAndGet(duration.toNanos(), Math::max);
+        }
+    }
+}
@@ -19,11 +19,31 @@
 package co.elastic.gradle.utils;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public class RetryUtils {
 
+    // Actions are typically blocking I/O, so they shouldn't run on the common pool. Threads are only used while an
+    // attempt is running, waiting between attempts doesn't hold one.
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "retry-utils");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long TRIAL_POLL_INTERVAL = 100;
+
     public static <T>  RetryBuilder<T> retry(Supplier<T> action) {
         return new RetryBuilder<>(action);
     }
@@ -35,6 +55,8 @@ public class RetryUtils {
         private Optional<Consumer<Exception>> retryErrorConsumer = Optional.empty();
         private Optional<Integer> maxAttempt = Optional.empty();
         private Optional<Long> initialDelay = Optional.empty();
+        private Optional<CircuitBreaker> circuitBreaker = Optional.empty();
+        private Optional<RetryBudget> retryBudget = Optional.empty();
 
         private RetryBuilder(Supplier<T> action) {
             this.action = action;
@@ -50,6 +72,16 @@ public class RetryUtils {
             return this;
         }
 
+        public RetryBuilder<T> fullJitterBackoff(long baseTime, long cap) {
+            this.scheduler = Optional.of(new FullJitterBackoff(baseTime, cap));
+            return this;
+        }
+
+        public RetryBuilder<T> decorrelatedJitterBackoff(long baseTime, long cap) {
+            this.scheduler = Optional.of(new DecorrelatedJitterBackoff(baseTime, cap));
+            return this;
+        }
+
         public RetryBuilder<T> initialDelay(long initialDelay) {
             this.initialDelay = Optional.of(initialDelay);
             return this;
@@ -65,6 +97,56 @@ public class RetryUtils {
             return this;
         }
 
+        /**
+         * Skip attempts while the circuit of the endpoint is open, and report the outcome of attempts to it.
+         */
+        public RetryBuilder<T> circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = Optional.ofNullable(circuitBreaker);
+            return this;
+        }
+
+        /**
+         * Stop retrying once the budget shared with other actions is exhausted.
+         */
+        public RetryBuilder<T> retryBudget(RetryBudget retryBudget) {
+            this.retryBudget = Optional.ofNullable(retryBudget);
+            return this;
+        }
+
+        private T attempt() {
+            retryBudget.ifPresent(RetryBudget::recordAttempt);
+            try {
+                final T result = action.get();
+                circuitBreaker.ifPresent(CircuitBreaker::recordSuccess);
+                return result;
+            } catch (RuntimeException e) {
+                circuitBreaker.ifPresent(CircuitBreaker::recordFailure);
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the time to wait before the next attempt, or throws the error if there should be none.
+         */
+        private long nextDelay(int attempts, RuntimeException e) {
+            maxAttempt
+                    .filter(maxAttempt -> attempts >= maxAttempt - 1)
+                    .ifPresent( it -> { throw e; } );
+            retryBudget
+                    .filter(budget -> !budget.tryAcquireRetry())
+                    .ifPresent( it -> { throw e; } );
+            retryErrorConsumer.ifPresent(onError -> onError.accept(e));
+            return scheduler.map(scheduler -> scheduler.deferTime(attempts)).orElse(0L);
+        }
+
+        private long circuitDelay() {
+            return circuitBreaker.map(CircuitBreaker::remainingOpenTime).orElse(0L);
+        }
+
+        private boolean tryAcquirePermit() {
+            return circuitBreaker.map(CircuitBreaker::tryAcquirePermit).orElse(true);
+        }
+
         private T execute(int attempts) {
             if (attempts == 0) {
                 this.initialDelay.ifPresent(delay -> {
@@ -78,19 +160,22 @@ public class RetryUtils {
             }
 
             try {
-                return action.get();
-            } catch (Exception e) {
-                maxAttempt
-                        .filter(maxAttempt -> attempts >= maxAttempt - 1)
-                        .ifPresent( it -> { throw e; } );
-                retryErrorConsumer.ifPresent(onError -> onError.accept(e));
-                scheduler.ifPresent(scheduler -> {
-                    try {
-                        Thread.sleep(scheduler.deferTime(attempts));
-                    } catch (InterruptedException interruptedException) {
-                        throw new RetryException("Error while waiting during retry "+ attempts, interruptedException);
-                    }
-                });
+                while (!tryAcquirePermit()) {
+                    Thread.sleep(Math.max(circuitDelay(), TRIAL_POLL_INTERVAL));
+                }
+            } catch (InterruptedException interruptedException) {
+                throw new RetryException("Error while waiting for circuit during retry " + attempts, interruptedException);
+            }
+
+            try {
+                return attempt();
+            } catch (RuntimeException e) {
+                final long delay = nextDelay(attempts, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interruptedException) {
+                    throw new RetryException("Error while waiting during retry "+ attempts, interruptedException);
+                }
                 return execute(attempts + 1);
             }
         }
@@ -99,6 +184,55 @@ public class RetryUtils {
             return execute(0);
         }
 
+        /**
+         * Same as {@link #execute()}, but no thread is held while waiting between attempts.
+         */
+        public CompletableFuture<T> executeAsync() {
+            return executeAsync(ASYNC_EXECUTOR);
+        }
+
+        public CompletableFuture<T> executeAsync(Executor executor) {
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            scheduleAsync(0, initialDelay.orElse(0L), executor, result);
+            return result;
+        }
+
+        private void scheduleAsync(int attempts, long delay, Executor executor, CompletableFuture<T> result) {
+            final long wait = Math.max(delay, circuitDelay());
+            final Executor delayed = wait > 0 ?
+                    CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS, executor) :
+                    executor;
+            try {
+                delayed.execute(() -> {
+                    if (result.isDone()) {
+                        // cancelled by the caller
+                        return;
+                    }
+                    // The circuit might have been opened by another action while we were waiting, or another
+                    // action is doing the trial attempt
+                    if (!tryAcquirePermit()) {
+                        scheduleAsync(attempts, TRIAL_POLL_INTERVAL, executor, result);
+                        return;
+                    }
+                    try {
+                        result.complete(attempt());
+                    } catch (RuntimeException e) {
+                        final long nextDelay;
+                        try {
+                            nextDelay = nextDelay(attempts, e);
+                        } catch (RuntimeException last) {
+                            result.completeExceptionally(last);
+                            return;
+                        }
+                        scheduleAsync(attempts + 1, nextDelay, executor, result);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // e.g. the executor was shut down
+                result.completeExceptionally(new CompletionException(e));
+            }
+        }
+
     }
 
     public interface RetryScheduler {
@@ -121,6 +255,146 @@ public class RetryUtils {
         }
     }
 
+    /**
+     * Wait a random time between 0 and the exponential backoff, so that actions failing at the same time don't retry
+     * at the same time.
+     */
+    public static class FullJitterBackoff implements RetryScheduler {
+        private final ExponentialBackoff backoff;
+
+        public FullJitterBackoff(long base, long cap) {
+            this.backoff = new ExponentialBackoff(base, cap);
+        }
+
+        @Override
+        public long deferTime(int count) {
+            return ThreadLocalRandom.current().nextLong(backoff.deferTime(count) + 1);
+        }
+    }
+
+    /**
+     * Wait a random time between the base and three times the previous wait, capped.
+     * Each builder needs its own instance as the previous wait is tracked.
+     */
+    public static class DecorrelatedJitterBackoff implements RetryScheduler {
+        private final long base;
+        private final long cap;
+        private final AtomicLong previous;
+
+        public DecorrelatedJitterBackoff(long base, long cap) {
+            this.base = base;
+            this.cap = cap;
+            this.previous = new AtomicLong(base);
+        }
+
+        @Override
+        public long deferTime(int count) {
+            final long upper = Math.max(base, previous.get() * 3);
+            final long next = Math.min(cap, base + ThreadLocalRandom.current().nextLong(upper - base + 1));
+            previous.set(next);
+            return next;
+        }
+    }
+
+    /**
+     * Tracks the health of an endpoint, e.g. a registry, across the actions sharing it.
+     * After a number of consecutive failures the circuit opens and attempts are held back for the open time. Once it
+     * elapsed the circuit is half-open: a single trial attempt is let through while the others keep waiting for its
+     * outcome. A success closes the circuit again, a failure opens it for another open time.
+     * <p>
+     * Breakers are meant to be shared through a build service so their state doesn't outlive the build.
+     */
+    public static class CircuitBreaker {
+        private final int failureThreshold;
+        private final long openTime;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong openUntil = new AtomicLong();
+        private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+        public CircuitBreaker(int failureThreshold, long openTime) {
+            this.failureThreshold = failureThreshold;
+            this.openTime = openTime;
+        }
+
+        private boolean isClosed() {
+            return consecutiveFailures.get() < failureThreshold;
+        }
+
+        /**
+         * How long to wait before it's worth asking for a permit again.
+         */
+        public long remainingOpenTime() {
+            if (isClosed()) {
+                return 0;
+            }
+            final long remaining = openUntil.get() - System.currentTimeMillis();
+            if (remaining > 0) {
+                return remaining;
+            }
+            // Half-open, poll until the trial attempt completes
+            return trialInFlight.get() ? Math.min(openTime, TRIAL_POLL_INTERVAL) : 0;
+        }
+
+        /**
+         * Returns true if an attempt may go ahead. When half-open only the first caller gets to, and is then expected
+         * to report its outcome.
+         */
+        public boolean tryAcquirePermit() {
+            if (isClosed()) {
+                return true;
+            }
+            if (openUntil.get() > System.currentTimeMillis()) {
+                return false;
+            }
+            return trialInFlight.compareAndSet(false, true);
+        }
+
+        public void recordSuccess() {
+            consecutiveFailures.set(0);
+            openUntil.set(0);
+            trialInFlight.set(false);
+        }
+
+        public void recordFailure() {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                openUntil.set(System.currentTimeMillis() + openTime);
+                trialInFlight.set(false);
+            }
+        }
+    }
+
+    /**
+     * Limits retries to a ratio of all attempts, shared by the actions using the same budget.
+     * This keeps retries from multiplying the load when everything is failing.
+     */
+    public static class RetryBudget {
+        private final double ratio;
+        private final int minRetries;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger retries = new AtomicInteger();
+
+        public RetryBudget(double ratio, int minRetries) {
+            this.ratio = ratio;
+            this.minRetries = minRetries;
+        }
+
+        void recordAttempt() {
+            attempts.incrementAndGet();
+        }
+
+        boolean tryAcquireRetry() {
+            while (true) {
+                final int current = retries.get();
+                if (current >= minRetries + ratio * attempts.get()) {
+                    return false;
+                }
+                if (retries.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
     public static class RetryException extends RuntimeException {
         public RetryException(String message, Throwable cause) {
             super(message, cause);
@@ -20,15 +20,31 @@ package co.elastic.gradle.utils;
 
 import javax.net.ssl.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public class SSLCAChainExtractor {
 
@@ -58,6 +74,21 @@ public class SSLCAChainExtractor {
         }
     }
 
+    private static final int MAX_CONCURRENT_HANDSHAKES = 8;
+    private static final Map<String, CachedChain> CHAINS = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<CachedChain>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * Where the chains come from when these are not cached, the handshake with the host unless testing.
+     */
+    @FunctionalInterface
+    interface ChainSource {
+        List<X509Certificate> extract(String host, int port);
+    }
+
+    private record CachedChain(Instant extractedAt, List<X509Certificate> chain) {
+    }
+
     public static List<X509Certificate> extract(String host, int port) {
         try {
             SSLContext context = SSLContext.getInstance("TLS");
@@ -77,10 +108,10 @@ public class SSLCAChainExtractor {
             );
 
             SSLSocketFactory factory = context.getSocketFactory();
-            SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
-            socket.setSoTimeout(10000);
-            socket.startHandshake();
-            socket.close();
+            try (SSLSocket socket = (SSLSocket) factory.createSocket(host, port)) {
+                socket.setSoTimeout(10000);
+                socket.startHandshake();
+            }
 
 
             X509Certificate[] chain = savingTrustManager.chain;
@@ -96,4 +127,164 @@ public class SSLCAChainExtractor {
         }
     }
 
+    /**
+     * Same as {@link #extract(String, int)}, but chains are reused for the given time, in memory and from PEM files in
+     * the cache directory, so subsequent builds don't need to connect again.
+     * Chains that contain a certificate that is no longer valid are extracted again regardless of the time.
+     */
+    public static List<X509Certificate> extract(String host, int port, Path cacheDir, Duration ttl) {
+        return extract(host, port, cacheDir, ttl, SSLCAChainExtractor::extract);
+    }
+
+    /**
+     * Extract the chains of multiple hosts concurrently, using the cache.
+     * The handshakes run on threads of their own, at most {@value #MAX_CONCURRENT_HANDSHAKES} at a time.
+     *
+     * @param hostsAndPorts in the form of {@code host:port}
+     */
+    public static Map<String, List<X509Certificate>> extractAll(
+            Collection<String> hostsAndPorts, Path cacheDir, Duration ttl
+    ) {
+        return extractAll(hostsAndPorts, cacheDir, ttl, SSLCAChainExtractor::extract);
+    }
+
+    static Map<String, List<X509Certificate>> extractAll(
+            Collection<String> hostsAndPorts, Path cacheDir, Duration ttl, ChainSource source
+    ) {
+        final List<String> distinct = hostsAndPorts.stream().distinct().collect(Collectors.toList());
+        if (distinct.isEmpty()) {
+            return Map.of();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_CONCURRENT_HANDSHAKES, distinct.size()),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "ca-chain-extract");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        try {
+            final Map<String, Future<List<X509Certificate>>> futures = new LinkedHashMap<>();
+            for (String hostAndPort : distinct) {
+                final int separator = hostAndPort.lastIndexOf(':');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected host:port but got " + hostAndPort);
+                }
+                final String host = hostAndPort.substring(0, separator);
+                final int port = Integer.parseInt(hostAndPort.substring(separator + 1));
+                futures.put(hostAndPort, executor.submit(() -> extract(host, port, cacheDir, ttl, source)));
+            }
+            final Map<String, List<X509Certificate>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<List<X509Certificate>>> entry : futures.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting CA chains", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static List<X509Certificate> extract(String host, int port, Path cacheDir, Duration ttl, ChainSource source) {
+        final String key = host + "_" + port;
+        final Instant now = Instant.now();
+        final CachedChain cached = CHAINS.get(key);
+        if (cached != null && isUsable(cached, now, ttl)) {
+            return cached.chain();
+        }
+        // Callers asking for the same host at the same time share a single handshake, without holding a lock that
+        // would block callers asking for other hosts
+        final CompletableFuture<CachedChain> extraction = new CompletableFuture<>();
+        final CompletableFuture<CachedChain> running = IN_FLIGHT.putIfAbsent(key, extraction);
+        if (running != null) {
+            try {
+                return running.join().chain();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            }
+        }
+        try {
+            final Path cacheFile = cacheDir.resolve(key + ".pem");
+            final CachedChain fromFile = readCacheFile(cacheFile);
+            final CachedChain result;
+            if (fromFile != null && isUsable(fromFile, now, ttl)) {
+                result = fromFile;
+            } else {
+                result = new CachedChain(now, source.extract(host, port));
+                writeCacheFile(cacheFile, result.chain());
+            }
+            CHAINS.put(key, result);
+            extraction.complete(result);
+            return result.chain();
+        } catch (RuntimeException e) {
+            extraction.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, extraction);
+        }
+    }
+
+    private static boolean isUsable(CachedChain cached, Instant now, Duration ttl) {
+        if (cached.extractedAt().plus(ttl).isBefore(now)) {
+            return false;
+        }
+        try {
+            for (X509Certificate certificate : cached.chain()) {
+                certificate.checkValidity();
+            }
+            return true;
+        } catch (CertificateException e) {
+            return false;
+        }
+    }
+
+    private static CachedChain readCacheFile(Path cacheFile) {
+        try {
+            if (!Files.exists(cacheFile)) {
+                return null;
+            }
+            final Instant extractedAt = Files.getLastModifiedTime(cacheFile).toInstant();
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                final List<X509Certificate> chain = CertificateFactory.getInstance("X.509")
+                        .generateCertificates(in).stream()
+                        .map(certificate -> (X509Certificate) certificate)
+                        .collect(Collectors.toList());
+                return chain.isEmpty() ? null : new CachedChain(extractedAt, chain);
+            }
+        } catch (IOException | CertificateException e) {
+            // A corrupt cache file is no different from a missing one
+            return null;
+        }
+    }
+
+    private static void writeCacheFile(Path cacheFile, List<X509Certificate> chain) {
+        final Base64.Encoder encoder = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+        final StringBuilder pem = new StringBuilder();
+        try {
+            for (X509Certificate certificate : chain) {
+                pem.append("-----BEGIN CERTIFICATE-----\n")
+                        .append(encoder.encodeToString(certificate.getEncoded()))
+                        .append("\n-----END CERTIFICATE-----\n");
+            }
+            Files.createDirectories(cacheFile.getParent());
+            final Path tmp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, pem);
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (CertificateEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
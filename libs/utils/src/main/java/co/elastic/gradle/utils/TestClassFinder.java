@@ -0,0 +1,64 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Build wide service to find test classes, that keeps what it listed from classes directories and read from class
+ * files for the duration of the build.
+ * <p>
+ * Test tasks of the same build often look at the same classes directories, e.x. when tests are split across tasks, so
+ * directories are only listed and class files only read again if these changed. The caches go away with the service at
+ * the end of the build, so these don't grow with every project the daemon builds.
+ */
+public abstract class TestClassFinder implements BuildService<BuildServiceParameters.None> {
+
+    public static final String NAME = "testClassFinder";
+
+    public static Provider<TestClassFinder> register(Gradle gradle) {
+        return gradle.getSharedServices().registerIfAbsent(NAME, TestClassFinder.class, spec -> {
+        });
+    }
+
+    private final ClassNameIndex index = new ClassNameIndex();
+    private final ClassFileScanner scanner = new ClassFileScanner();
+
+    /**
+     * @see GradleUtils#testClassNames(Set)
+     */
+    public List<String> testClassNames(Set<File> classesDirs) {
+        return GradleUtils.testClassNames(index, classesDirs);
+    }
+
+    /**
+     * @see GradleUtils#classNamesByAnnotation(Set, List, String)
+     */
+    public String[] classNamesByAnnotation(Set<File> classesDir, List<URL> classpath, String annotation) {
+        return GradleUtils.classNamesByAnnotation(index, scanner, classesDir, classpath, annotation);
+    }
+}
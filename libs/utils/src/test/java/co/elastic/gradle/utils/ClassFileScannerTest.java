@@ -0,0 +1,102 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassFileScannerTest {
+
+    @Deprecated(since = "test", forRemoval = true)
+    @SuppressWarnings({"unused"})
+    static class Annotated extends Base {
+        static final long LONG_CONSTANT = 42L;
+        final double doubleField = 1.5;
+    }
+
+    static class Base {
+    }
+
+    @Test
+    void readsAnnotationsAndSuperClass() throws IOException {
+        final ClassFileScanner.ClassInfo info = scan(Annotated.class);
+        // SuppressWarnings is not retained at runtime
+        assertEquals(Set.of(Deprecated.class.getName()), info.annotations());
+        assertEquals(Optional.of(Base.class.getName()), info.superClass());
+    }
+
+    @Test
+    void readsClassWithoutAnnotations() throws IOException {
+        final ClassFileScanner.ClassInfo info = scan(Base.class);
+        assertTrue(info.annotations().isEmpty());
+        assertEquals(Optional.of(Object.class.getName()), info.superClass());
+    }
+
+    @Test
+    void readsMinimalClassFile() throws IOException {
+        final ClassFileScanner.ClassInfo info = ClassFileScanner.scan(
+                new ByteArrayInputStream(classFile("pkg/A", "pkg/SuperA"))
+        );
+        assertTrue(info.annotations().isEmpty());
+        assertEquals(Optional.of("pkg.SuperA"), info.superClass());
+    }
+
+    /**
+     * A class file without members or attributes, classes with super classes of the same name length have the same size.
+     */
+    static byte[] classFile(String name, String superClass) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(61); // major version
+        out.writeShort(5); // constant pool count, entries start at 1
+        out.writeByte(1);
+        out.writeUTF(name);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF(superClass);
+        out.writeByte(7);
+        out.writeShort(3);
+        out.writeShort(0x0021); // public super
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(0); // methods
+        out.writeShort(0); // attributes
+        return bytes.toByteArray();
+    }
+
+    private static ClassFileScanner.ClassInfo scan(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream(clazz.getName().substring(clazz.getPackageName().length() + 1) + ".class")) {
+            return ClassFileScanner.scan(in);
+        }
+    }
+}
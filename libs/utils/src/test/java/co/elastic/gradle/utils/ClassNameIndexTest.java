@@ -0,0 +1,104 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassNameIndexTest {
+
+    @TempDir
+    Path tmp;
+
+    private final ClassNameIndex index = new ClassNameIndex();
+
+    // Changes within the racy window might not change the last modified time of the directory if the file system has
+    // a coarse resolution, so the tests keep the time the same to make sure these are still picked up.
+
+    @Test
+    void addedClassIsFoundWithinRacyWindow() throws IOException {
+        final Path pkg = Files.createDirectories(tmp.resolve("pkg"));
+        Files.write(pkg.resolve("A.class"), new byte[0]);
+        assertEquals(List.of("pkg.A"), classNames());
+
+        withSameLastModifiedTime(pkg, () -> Files.write(pkg.resolve("B.class"), new byte[0]));
+        assertEquals(List.of("pkg.A", "pkg.B"), classNames());
+    }
+
+    @Test
+    void removedClassIsGoneWithinRacyWindow() throws IOException {
+        final Path pkg = Files.createDirectories(tmp.resolve("pkg"));
+        Files.write(pkg.resolve("A.class"), new byte[0]);
+        Files.write(pkg.resolve("B.class"), new byte[0]);
+        assertEquals(List.of("pkg.A", "pkg.B"), classNames());
+
+        withSameLastModifiedTime(pkg, () -> Files.delete(pkg.resolve("A.class")));
+        assertEquals(List.of("pkg.B"), classNames());
+    }
+
+    @Test
+    void modifiedClassIsReadAgainWithinRacyWindow() throws IOException {
+        final Path classFile = Files.createDirectories(tmp.resolve("pkg")).resolve("A.class");
+        final ClassFileScanner scanner = new ClassFileScanner();
+        Files.write(classFile, ClassFileScannerTest.classFile("pkg/A", "pkg/SuperA"));
+        assertEquals(List.of("pkg.A"), classNames());
+        assertEquals("pkg.SuperA", scanner.scan(classFile).superClass().orElseThrow());
+
+        // Same size and last modified time, only the contents changed
+        withSameLastModifiedTime(classFile, () ->
+                Files.write(classFile, ClassFileScannerTest.classFile("pkg/A", "pkg/SuperB"))
+        );
+        assertEquals(List.of("pkg.A"), classNames());
+        assertEquals("pkg.SuperB", scanner.scan(classFile).superClass().orElseThrow());
+    }
+
+    @Test
+    void removedPackageIsGone() throws IOException {
+        final Path pkg = Files.createDirectories(tmp.resolve("pkg"));
+        Files.write(pkg.resolve("A.class"), new byte[0]);
+        Files.write(tmp.resolve("Root.class"), new byte[0]);
+        assertEquals(List.of("Root", "pkg.A"), classNames());
+
+        Files.delete(pkg.resolve("A.class"));
+        withSameLastModifiedTime(tmp, () -> Files.delete(pkg));
+        assertEquals(List.of("Root"), classNames());
+    }
+
+    private List<String> classNames() {
+        return index.classFiles(tmp).stream().map(ClassNameIndex.ClassFile::className).toList();
+    }
+
+    private interface Change {
+        void apply() throws IOException;
+    }
+
+    private static void withSameLastModifiedTime(Path path, Change change) throws IOException {
+        final FileTime lastModified = Files.getLastModifiedTime(path);
+        change.apply();
+        Files.setLastModifiedTime(path, lastModified);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtractCompressedTarTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void testModes() throws IOException {
+        final Path archive = tmp.resolve("modes.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            directory(tar, "bin/", 0555);
+            file(tar, "bin/run", "#!/bin/sh", 0755);
+            file(tar, "secret", "secret", 0600);
+        }
+
+        ExtractCompressedTar.extract(archive, tmp.resolve("out"));
+
+        assertEquals("r-xr-xr-x", permissions(tmp.resolve("out/bin")));
+        assertEquals("rwxr-xr-x", permissions(tmp.resolve("out/bin/run")));
+        assertEquals("rw-------", permissions(tmp.resolve("out/secret")));
+    }
+
+    @Test
+    void testLinks() throws IOException {
+        final Path archive = tmp.resolve("links.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            file(tar, "lib/libfoo.so.1", "foo", 0644);
+            link(tar, "lib/libfoo.so", "libfoo.so.1", TarConstants.LF_SYMLINK);
+            link(tar, "lib/libfoo.so.hard", "lib/libfoo.so.1", TarConstants.LF_LINK);
+        }
+
+        final Path out = tmp.resolve("out");
+        ExtractCompressedTar.extract(archive, out);
+
+        assertTrue(Files.isSymbolicLink(out.resolve("lib/libfoo.so")));
+        assertEquals("libfoo.so.1", Files.readSymbolicLink(out.resolve("lib/libfoo.so")).toString());
+        assertEquals("foo", Files.readString(out.resolve("lib/libfoo.so")));
+        assertTrue(Files.isSameFile(out.resolve("lib/libfoo.so.1"), out.resolve("lib/libfoo.so.hard")));
+    }
+
+    @Test
+    void testLinkOutsideOfDestination() throws IOException {
+        final Path archive = tmp.resolve("escape.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            link(tar, "passwd", "../../etc/passwd", TarConstants.LF_LINK);
+        }
+
+        assertThrows(IOException.class, () -> ExtractCompressedTar.extract(archive, tmp.resolve("out")));
+    }
+
+    @Test
+    void testDuplicateEntries() throws IOException {
+        final Path archive = tmp.resolve("duplicates.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            file(tar, "small", "first", 0644);
+            file(tar, "small", "second", 0600);
+            // Larger entries are streamed by the reading thread rather than buffered
+            file(tar, "large", "x".repeat(17 * 1024 * 1024), 0644);
+            file(tar, "large", "small now", 0644);
+            file(tar, "grows", "small first", 0644);
+            file(tar, "grows", "y".repeat(17 * 1024 * 1024), 0644);
+        }
+
+        final Path out = tmp.resolve("out");
+        ExtractCompressedTar.extract(archive, out);
+
+        assertEquals("second", Files.readString(out.resolve("small")));
+        assertEquals("rw-------", permissions(out.resolve("small")));
+        assertEquals("small now", Files.readString(out.resolve("large")));
+        assertEquals(17 * 1024 * 1024, Files.size(out.resolve("grows")));
+    }
+
+    @Test
+    void testExtractingAgain() throws IOException {
+        final Path archive = tmp.resolve("again.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            directory(tar, "ro/", 0555);
+            file(tar, "ro/file", "contents", 0444);
+            file(tar, "target", "target", 0644);
+            link(tar, "ro/link", "../target", TarConstants.LF_SYMLINK);
+            link(tar, "hard", "target", TarConstants.LF_LINK);
+        }
+
+        final Path out = tmp.resolve("out");
+        ExtractCompressedTar.extract(archive, out);
+        ExtractCompressedTar.extract(archive, out);
+
+        assertEquals("contents", Files.readString(out.resolve("ro/file")));
+        assertEquals("r-xr-xr-x", permissions(out.resolve("ro")));
+        assertEquals("target", Files.readString(out.resolve("ro/link")));
+        assertTrue(Files.isSameFile(out.resolve("target"), out.resolve("hard")));
+    }
+
+    @Test
+    void testExtractCached() throws IOException {
+        final Path archive = tmp.resolve("cached.tar");
+        try (TarArchiveOutputStream tar = tar(archive)) {
+            file(tar, "file", "contents", 0644);
+        }
+        final Path cacheDirectory = tmp.resolve("task-tmp");
+
+        final Closeable extractionCache = ExtractCompressedTar.cacheExtraction(archive, cacheDirectory);
+        try {
+            ExtractCompressedTar.extractCached(archive, tmp.resolve("first"));
+            ExtractCompressedTar.extractCached(archive, tmp.resolve("second"));
+            assertTrue(Files.isSameFile(tmp.resolve("first/file"), tmp.resolve("second/file")));
+        } finally {
+            extractionCache.close();
+        }
+        try (Stream<Path> cached = Files.list(cacheDirectory)) {
+            assertEquals(0, cached.count());
+        }
+
+        // Without a cache it's extracted every time
+        ExtractCompressedTar.extractCached(archive, tmp.resolve("third"));
+        assertFalse(Files.isSameFile(tmp.resolve("first/file"), tmp.resolve("third/file")));
+        assertEquals("contents", Files.readString(tmp.resolve("third/file")));
+    }
+
+    private static TarArchiveOutputStream tar(Path archive) throws IOException {
+        final TarArchiveOutputStream tar = new TarArchiveOutputStream(Files.newOutputStream(archive));
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        return tar;
+    }
+
+    private static void directory(TarArchiveOutputStream tar, String name, int mode) throws IOException {
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setMode(TarArchiveEntry.DEFAULT_DIR_MODE & ~0777 | mode);
+        tar.putArchiveEntry(entry);
+        tar.closeArchiveEntry();
+    }
+
+    private static void file(TarArchiveOutputStream tar, String name, String contents, int mode) throws IOException {
+        final byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setMode(mode);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+
+    private static void link(TarArchiveOutputStream tar, String name, String target, byte type) throws IOException {
+        final TarArchiveEntry entry = new TarArchiveEntry(name, type);
+        entry.setLinkName(target);
+        tar.putArchiveEntry(entry);
+        tar.closeArchiveEntry();
+    }
+
+    private static String permissions(Path path) throws IOException {
+        return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+    }
+}
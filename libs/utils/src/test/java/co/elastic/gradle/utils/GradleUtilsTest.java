@@ -0,0 +1,111 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GradleUtilsTest {
+
+    @Inherited
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface InheritedMarker {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Marker {
+    }
+
+    @InheritedMarker
+    @Marker
+    static class AnnotatedBase {
+    }
+
+    static class Child extends AnnotatedBase {
+    }
+
+    static class GrandChild extends Child {
+    }
+
+    static class Unrelated {
+    }
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void inheritedAnnotationsAreFoundOnSubclasses() throws IOException, URISyntaxException {
+        copyClassFiles(AnnotatedBase.class, Child.class, GrandChild.class, Unrelated.class);
+
+        assertEquals(
+                Set.of(AnnotatedBase.class.getName(), Child.class.getName(), GrandChild.class.getName()),
+                classNamesByAnnotation(InheritedMarker.class)
+        );
+        // Matches Class#isAnnotationPresent
+        assertTrue(GrandChild.class.isAnnotationPresent(InheritedMarker.class));
+        assertFalse(Child.class.isAnnotationPresent(Marker.class));
+        assertEquals(Set.of(AnnotatedBase.class.getName()), classNamesByAnnotation(Marker.class));
+    }
+
+    @Test
+    void inheritedAnnotationsAreFoundOnSuperClassesFromTheClasspath() throws IOException, URISyntaxException {
+        // The annotated base class is only on the classpath
+        copyClassFiles(GrandChild.class, Unrelated.class);
+
+        assertEquals(Set.of(GrandChild.class.getName()), classNamesByAnnotation(InheritedMarker.class));
+        assertEquals(Set.of(), classNamesByAnnotation(Marker.class));
+    }
+
+    private Set<String> classNamesByAnnotation(Class<?> annotation) throws URISyntaxException, IOException {
+        return Set.of(GradleUtils.classNamesByAnnotation(
+                Set.of(tmp.toFile()),
+                List.of(testClassesRoot().toUri().toURL()),
+                annotation.getName()
+        ));
+    }
+
+    private void copyClassFiles(Class<?>... classes) throws IOException, URISyntaxException {
+        for (Class<?> clazz : Arrays.asList(classes)) {
+            final String resource = clazz.getName().replace('.', '/') + ".class";
+            final Path target = tmp.resolve(resource);
+            Files.createDirectories(target.getParent());
+            Files.copy(testClassesRoot().resolve(resource), target);
+        }
+    }
+
+    private static Path testClassesRoot() throws URISyntaxException {
+        final URL location = GradleUtilsTest.class.getProtectionDomain().getCodeSource().getLocation();
+        return Paths.get(location.toURI());
+    }
+}
@@ -43,4 +43,19 @@ class PrefixingOutputStreamTest {
                 delegate.toString(StandardCharsets.UTF_8)
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPrefixAcrossWrites() throws IOException {
+        final ByteArrayOutputStream delegate = new ByteArrayOutputStream();
+        final PrefixingOutputStream out = new PrefixingOutputStream("[test] ", delegate);
+        out.write("first ".getBytes(StandardCharsets.UTF_8));
+        out.write("line\nsec".getBytes(StandardCharsets.UTF_8));
+        out.write('o');
+        out.write("nd line\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("[test] first line\n" +
+                     "[test] second line\n",
+                delegate.toString(StandardCharsets.UTF_8)
+        );
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessRunnerTest {
+
+    @Test
+    void testConsumerClosingTheStream() throws IOException {
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final InputStream output = new ByteArrayInputStream("first\nsecond\n".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        final AtomicReference<String> firstLine = new AtomicReference<>();
+
+        ProcessRunner.drain(output, stream -> {
+            firstLine.set(new String(stream.readNBytes(5), StandardCharsets.UTF_8));
+            stream.close();
+        });
+
+        assertEquals("first", firstLine.get());
+        assertEquals(0, output.available());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void testConsumerFailing() {
+        final ByteArrayInputStream output = new ByteArrayInputStream("output".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> ProcessRunner.drain(output, stream -> {
+            throw new IOException("failed");
+        }));
+        assertEquals(0, output.available());
+    }
+}
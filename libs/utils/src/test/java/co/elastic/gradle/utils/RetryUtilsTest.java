@@ -0,0 +1,135 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryUtilsTest {
+
+    @Test
+    void retriesUntilSuccess() {
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = RetryUtils.retry(() -> {
+                    if (calls.incrementAndGet() < 3) {
+                        throw new IllegalStateException("fail");
+                    }
+                    return "done";
+                })
+                .maxAttempt(3)
+                .execute();
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void asyncRetriesUntilSuccess() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = RetryUtils.retry(() -> {
+                    if (calls.incrementAndGet() < 3) {
+                        throw new IllegalStateException("fail");
+                    }
+                    return "done";
+                })
+                .maxAttempt(3)
+                .fullJitterBackoff(10, 50)
+                .executeAsync()
+                .get(10, TimeUnit.SECONDS);
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void asyncFailsAfterMaxAttempt() {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletionException e = assertThrows(
+                CompletionException.class,
+                () -> RetryUtils.retry(() -> {
+                            calls.incrementAndGet();
+                            throw new IllegalStateException("fail");
+                        })
+                        .maxAttempt(2)
+                        .executeAsync()
+                        .join()
+        );
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void jitterStaysWithinBounds() {
+        final RetryUtils.RetryScheduler full = new RetryUtils.FullJitterBackoff(100, 1000);
+        final RetryUtils.RetryScheduler decorrelated = new RetryUtils.DecorrelatedJitterBackoff(100, 1000);
+        for (int i = 0; i < 100; i++) {
+            final long fullTime = full.deferTime(i % 10);
+            assertTrue(fullTime >= 0 && fullTime <= 1000, "full jitter out of bounds: " + fullTime);
+            final long decorrelatedTime = decorrelated.deferTime(i);
+            assertTrue(decorrelatedTime >= 100 && decorrelatedTime <= 1000, "decorrelated jitter out of bounds: " + decorrelatedTime);
+        }
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailures() {
+        final RetryUtils.CircuitBreaker breaker = new RetryUtils.CircuitBreaker(2, 60000);
+        breaker.recordFailure();
+        assertEquals(0, breaker.remainingOpenTime());
+        breaker.recordFailure();
+        assertTrue(breaker.remainingOpenTime() > 0);
+        breaker.recordSuccess();
+        assertEquals(0, breaker.remainingOpenTime());
+    }
+
+    @Test
+    void halfOpenCircuitLetsASingleTrialThrough() throws InterruptedException {
+        final RetryUtils.CircuitBreaker breaker = new RetryUtils.CircuitBreaker(1, 50);
+        breaker.recordFailure();
+        assertFalse(breaker.tryAcquirePermit());
+        Thread.sleep(100);
+        assertTrue(breaker.tryAcquirePermit());
+        assertFalse(breaker.tryAcquirePermit());
+        assertTrue(breaker.remainingOpenTime() > 0);
+        breaker.recordFailure();
+        assertFalse(breaker.tryAcquirePermit());
+        Thread.sleep(100);
+        assertTrue(breaker.tryAcquirePermit());
+        breaker.recordSuccess();
+        assertTrue(breaker.tryAcquirePermit());
+        assertTrue(breaker.tryAcquirePermit());
+    }
+
+    @Test
+    void budgetLimitsRetries() {
+        final RetryUtils.RetryBudget budget = new RetryUtils.RetryBudget(0, 1);
+        final AtomicInteger calls = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> RetryUtils.retry(() -> {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("fail");
+                })
+                .maxAttempt(5)
+                .retryBudget(budget)
+                .execute()
+        );
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SSLCAChainExtractorTest {
+
+    // Self-signed, valid for 100 years
+    private static final String VALID = """
+            -----BEGIN CERTIFICATE-----
+            MIIBSDCB8KADAgECAgkA/jcOgVQafXowCgYIKoZIzj0EAwIwGDEWMBQGA1UEAxMN
+            dmFsaWQuZXhhbXBsZTAgFw0yNjEwMTkwMzQzNDdaGA8yMTI2MDkyNTAzNDM0N1ow
+            GDEWMBQGA1UEAxMNdmFsaWQuZXhhbXBsZTBZMBMGByqGSM49AgEGCCqGSM49AwEH
+            A0IABP/2GcU9SI1iblIamDjUxiXA4NkxduteA6tgkulYSf9yZ7AJC/5E6+aiqacA
+            C9zoJawg6BvSZfsXspubm8SBKkqjITAfMB0GA1UdDgQWBBTk1DlG/zZ3z8tKap0E
+            R2GVyY4RPDAKBggqhkjOPQQDAgNHADBEAiAj2xLAFFvPX8NZChEfhBLgKWpcriZO
+            Bb5PPBA/R2006gIgdd2tmtjM+rQ1HUHADPjnTeyNOEGV28JZKFA4Q67IMRc=
+            -----END CERTIFICATE-----
+            """;
+
+    // Self-signed, expired on 2000-01-02
+    private static final String EXPIRED = """
+            -----BEGIN CERTIFICATE-----
+            MIIBSjCB8aADAgECAggkvxyt5YXL5DAKBggqhkjOPQQDAjAaMRgwFgYDVQQDEw9l
+            eHBpcmVkLmV4YW1wbGUwHhcNMDAwMTAxMDAwMDAwWhcNMDAwMTAyMDAwMDAwWjAa
+            MRgwFgYDVQQDEw9leHBpcmVkLmV4YW1wbGUwWTATBgcqhkjOPQIBBggqhkjOPQMB
+            BwNCAAQjmbX4YkJhSfes2GibTEEE/lqZGd1sbcOcrn0IP3C8DWWVMZKrr5VqoE+2
+            EhVFPgo4LkMn5FW+X+XERpwq6QpUoyEwHzAdBgNVHQ4EFgQU290BOZTNVHWcb2vq
+            Hfbm75bp4zgwCgYIKoZIzj0EAwIDSAAwRQIgeCmgBGhvYNpOrUP4Js48zn0bhicz
+            n02x5DK9FnySiA0CIQDkQi6LFsHXd0vo4EUW71umYPezI1D4HBmcZOE0aoGOHA==
+            -----END CERTIFICATE-----
+            """;
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    // Chains are also cached in memory for the lifetime of the JVM, so each test uses hosts of its own
+
+    @Test
+    void extractedChainIsCached(@TempDir Path cacheDir) throws Exception {
+        final CountingSource source = new CountingSource();
+        final List<X509Certificate> first = SSLCAChainExtractor.extract("cached.test", 443, cacheDir, TTL, source);
+        final List<X509Certificate> second = SSLCAChainExtractor.extract("cached.test", 443, cacheDir, TTL, source);
+
+        assertEquals(1, source.calls.get());
+        assertEquals(first, second);
+        assertEquals(List.of(certificate(VALID)), parse(Files.readString(cacheDir.resolve("cached.test_443.pem"))));
+    }
+
+    @Test
+    void chainIsReadFromCacheFile(@TempDir Path cacheDir) throws Exception {
+        Files.writeString(cacheDir.resolve("from-file.test_443.pem"), VALID);
+        final CountingSource source = new CountingSource();
+
+        assertEquals(
+                List.of(certificate(VALID)),
+                SSLCAChainExtractor.extract("from-file.test", 443, cacheDir, TTL, source)
+        );
+        assertEquals(0, source.calls.get());
+    }
+
+    @Test
+    void expiredTtlExtractsAgain(@TempDir Path cacheDir) throws Exception {
+        final CountingSource source = new CountingSource();
+        SSLCAChainExtractor.extract("ttl.test", 443, cacheDir, TTL, source);
+        Thread.sleep(10);
+        SSLCAChainExtractor.extract("ttl.test", 443, cacheDir, Duration.ofMillis(1), source);
+
+        assertEquals(2, source.calls.get());
+    }
+
+    @Test
+    void staleCacheFileIsReplaced(@TempDir Path cacheDir) throws Exception {
+        final Path cacheFile = cacheDir.resolve("stale.test_443.pem");
+        Files.writeString(cacheFile, VALID);
+        Files.setLastModifiedTime(cacheFile, FileTime.from(Instant.now().minus(TTL).minusSeconds(60)));
+        final CountingSource source = new CountingSource();
+
+        SSLCAChainExtractor.extract("stale.test", 443, cacheDir, TTL, source);
+
+        assertEquals(1, source.calls.get());
+        assertTrue(Files.getLastModifiedTime(cacheFile).toInstant().isAfter(Instant.now().minus(TTL)));
+    }
+
+    @Test
+    void corruptCacheFileIsReplaced(@TempDir Path cacheDir) throws Exception {
+        final Path cacheFile = cacheDir.resolve("corrupt.test_443.pem");
+        Files.writeString(cacheFile, "-----BEGIN CERTIFICATE-----\nnot a certificate\n");
+        final CountingSource source = new CountingSource();
+
+        assertEquals(
+                List.of(certificate(VALID)),
+                SSLCAChainExtractor.extract("corrupt.test", 443, cacheDir, TTL, source)
+        );
+        assertEquals(1, source.calls.get());
+        assertEquals(List.of(certificate(VALID)), parse(Files.readString(cacheFile)));
+    }
+
+    @Test
+    void expiredCertificateExtractsAgain(@TempDir Path cacheDir) throws Exception {
+        Files.writeString(cacheDir.resolve("expired.test_443.pem"), EXPIRED);
+        final CountingSource source = new CountingSource();
+
+        assertEquals(
+                List.of(certificate(VALID)),
+                SSLCAChainExtractor.extract("expired.test", 443, cacheDir, TTL, source)
+        );
+        assertEquals(1, source.calls.get());
+    }
+
+    @Test
+    void concurrentRequestsForTheSameHostShareTheHandshake(@TempDir Path cacheDir) throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingSource source = new CountingSource(release);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<X509Certificate>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(
+                        () -> SSLCAChainExtractor.extract("concurrent.test", 443, cacheDir, TTL, source)
+                ));
+            }
+            // Give the other callers a chance to find the handshake in flight
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<List<X509Certificate>> future : futures) {
+                assertEquals(List.of(certificate(VALID)), future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, source.calls.get());
+    }
+
+    @Test
+    void extractAllRunsHandshakesConcurrently(@TempDir Path cacheDir) throws Exception {
+        final CyclicBarrier allConnected = new CyclicBarrier(3);
+        final Map<String, List<X509Certificate>> chains = SSLCAChainExtractor.extractAll(
+                List.of("a.test:443", "b.test:5000", "c.test:443", "a.test:443"), cacheDir, TTL,
+                (host, port) -> {
+                    try {
+                        // Only returns if all three handshakes are running at the same time
+                        allConnected.await(10, TimeUnit.SECONDS);
+                        return List.of(certificate(VALID));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+        );
+        assertEquals(List.of("a.test:443", "b.test:5000", "c.test:443"), new ArrayList<>(chains.keySet()));
+        assertTrue(Files.exists(cacheDir.resolve("b.test_5000.pem")));
+    }
+
+    @Test
+    void extractAllReportsFailures(@TempDir Path cacheDir) {
+        final IllegalStateException e = assertThrows(
+                IllegalStateException.class,
+                () -> SSLCAChainExtractor.extractAll(
+                        List.of("failing.test:443"), cacheDir, TTL,
+                        (host, port) -> {
+                            throw new IllegalStateException("Could not get CA chain from " + host + ":" + port);
+                        }
+                )
+        );
+        assertEquals("Could not get CA chain from failing.test:443", e.getMessage());
+        assertFalse(Files.exists(cacheDir.resolve("failing.test_443.pem")));
+    }
+
+    private static class CountingSource implements SSLCAChainExtractor.ChainSource {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release;
+
+        CountingSource() {
+            this(new CountDownLatch(0));
+        }
+
+        CountingSource(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public List<X509Certificate> extract(String host, int port) {
+            calls.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+                return List.of(certificate(VALID));
+            } catch (InterruptedException | CertificateException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static X509Certificate certificate(String pem) throws CertificateException {
+        return parse(pem).get(0);
+    }
+
+    private static List<X509Certificate> parse(String pem) throws CertificateException {
+        return CertificateFactory.getInstance("X.509")
+                .generateCertificates(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII))).stream()
+                .map(certificate -> (X509Certificate) certificate)
+                .toList();
+    }
+}
@@ -19,13 +19,14 @@
 package co.elastic.gradle.cli.shellcheck;
 
 import co.elastic.gradle.utils.PrefixingOutputStream;
+import co.elastic.gradle.utils.ProcessRunner;
 import co.elastic.gradle.utils.RegularFileUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.tasks.*;
-import org.gradle.process.ExecOperations;
+import org.gradle.api.provider.Property;
 
 import javax.inject.Inject;
 import java.io.IOException;
@@ -34,7 +35,6 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @CacheableTask
 public abstract class ShellcheckTask extends DefaultTask {
@@ -45,6 +45,8 @@ public abstract class ShellcheckTask extends DefaultTask {
         getMarkerFile().convention(
                 getProjectLayout().getBuildDirectory().file("shellcheck/" + getName() + ".marker")
         );
+        getProcessRunner().convention(ProcessRunner.register(getProject().getGradle()));
+        usesService(getProcessRunner());
     }
 
     public void check(FileCollection files) {
@@ -66,34 +68,31 @@ public abstract class ShellcheckTask extends DefaultTask {
     @PathSensitive(PathSensitivity.NAME_ONLY)
     public abstract RegularFileProperty getTool();
 
+    @Internal
+    public abstract Property<ProcessRunner> getProcessRunner();
+
     @TaskAction
     void doCheck() throws IOException {
-        getExecOperations().exec(spec -> {
-            spec.setEnvironment(Collections.emptyMap());
-            spec.setExecutable(getTool().get().getAsFile());
-            spec.setStandardOutput(new PrefixingOutputStream("[shellcheck] ", System.out));
-            spec.setErrorOutput(new PrefixingOutputStream("[shellcheck] ", System.err));
-            spec.workingDir(getProject().getProjectDir());
-            spec.setIgnoreExitValue(false);
-            Path projectDir = getProject().getProjectDir().toPath();
-            List<String> args = new ArrayList<>();
-            // Don't read rc so we don't depend on local configuration
-            args.add("--norc");
-            args.add("--color=always");
-            args.addAll(
-                    getFilesToCheck().getFiles().stream()
-                            .sorted()
-                            .map(each -> projectDir.relativize(each.toPath()).toString())
-                            .collect(Collectors.toCollection(() -> args))
-            );
-            spec.setArgs(args);
-        });
+        Path projectDir = getProject().getProjectDir().toPath();
+        List<String> command = new ArrayList<>();
+        command.add(getTool().get().getAsFile().getAbsolutePath());
+        // Don't read rc so we don't depend on local configuration
+        command.add("--norc");
+        command.add("--color=always");
+        getFilesToCheck().getFiles().stream()
+                .sorted()
+                .map(each -> projectDir.relativize(each.toPath()).toString())
+                .forEach(command::add);
+        getProcessRunner().get().run(
+                ProcessRunner.command(command)
+                        .environment(Collections.emptyMap())
+                        .workingDir(getProject().getProjectDir())
+                        .stdout(ProcessRunner.OutputConsumer.to(new PrefixingOutputStream("[shellcheck] ", System.out)))
+                        .stderr(ProcessRunner.OutputConsumer.to(new PrefixingOutputStream("[shellcheck] ", System.err)))
+        );
         Files.writeString(RegularFileUtils.toPath(getMarkerFile()), "ran successfully");
     }
 
-    @Inject
-    protected abstract ExecOperations getExecOperations();
-
     @Inject
     protected abstract ProjectLayout getProjectLayout();
 
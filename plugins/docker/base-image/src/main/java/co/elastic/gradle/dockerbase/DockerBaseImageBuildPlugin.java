@@ -36,6 +36,8 @@ import co.elastic.gradle.utils.docker.instruction.From;
 import co.elastic.gradle.utils.docker.instruction.FromLocalImageBuild;
 import org.gradle.api.*;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencySet;
 import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
 import org.gradle.api.artifacts.repositories.PasswordCredentials;
 import org.gradle.api.provider.Property;
@@ -47,6 +49,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -73,16 +76,36 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
 
         final BaseImageExtension extension = target.getExtensions().create("dockerBaseImage", BaseImageExtension.class);
 
-        final Map<Architecture, Configuration> osPackageConfigurations = Arrays.stream(Architecture.values())
+        final Map<Architecture, NamedDomainObjectProvider<Configuration>> osPackageConfigurations = Arrays.stream(Architecture.values())
                 .collect(Collectors.toMap(
                         Function.identity(),
-                        each -> target.getConfigurations().create("_osPackageRepo_" + each.dockerName())
+                        each -> target.getConfigurations().register(
+                                osPackageConfigurationName(each),
+                                configuration -> configuration.withDependencies(dependencies ->
+                                        // Only read the lockfile if the packages are actually needed
+                                        addLockedPackagesAsDependencies(target, extension, each, dependencies)
+                                )
+                        )
                 ));
 
         registerPullTask(target, extension);
 
         final Configuration dockerEphemeralConfiguration = target.getConfigurations().create("dockerEphemeral");
 
+        final Provider<EmulatedBuildLimiter> emulatedBuildLimiter = target.getGradle().getSharedServices()
+                .registerIfAbsent(
+                        EmulatedBuildLimiter.NAME,
+                        EmulatedBuildLimiter.class,
+                        spec -> spec.getMaxParallelUsages().set(
+                                target.getProviders().gradleProperty("co.elastic.docker.maxConcurrentEmulatedBuilds")
+                                        .map(Integer::parseInt)
+                                        .orElse(1)
+                        )
+                );
+        final Provider<ImageBuildTimes> imageBuildTimes = target.getGradle().getSharedServices()
+                .registerIfAbsent(ImageBuildTimes.NAME, ImageBuildTimes.class, spec -> {
+                });
+
         Arrays.stream(Architecture.values()).forEach( arch -> {
             target.getTasks().register(
                     BUILD_TASK_NAME + dockerNameIfNotCurrent(arch),
@@ -102,6 +125,9 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
                         task.getDockerEphemeralConfiguration().set(dockerEphemeralConfiguration);
                         task.getOSPackagesConfiguration().set(osPackageConfigurations.get(arch));
                         task.dependsOn(osPackageConfigurations.get(arch));
+                        task.getBuildTimes().set(imageBuildTimes);
+                        task.usesService(imageBuildTimes);
+                        limitEmulatedBuild(target, task, arch, BUILD_TASK_NAME, emulatedBuildLimiter);
                     });
         });
 
@@ -132,6 +158,9 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
                             task -> {
                                 task.getArchitecture().set(arch);
                                 task.getInputInstructions().set(instructionsFilteredForArch(target, extension, arch));
+                                task.getBuildTimes().set(imageBuildTimes);
+                                task.usesService(imageBuildTimes);
+                                limitEmulatedBuild(target, task, arch, LOCKFILE_TASK_NAME, emulatedBuildLimiter);
                             }
                     );
                 }
@@ -151,7 +180,7 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
                     task.getMirrorRepositories().set(extension.getMirrorRepositories());
                     task.getDockerEphemeralConfiguration().set(dockerEphemeralConfiguration);
                     // Map the configuration to the architecture of the task
-                    task.getOSPackagesConfiguration().set(task.getArchitecture().map(osPackageConfigurations::get));
+                    task.getOSPackagesConfiguration().set(task.getArchitecture().flatMap(osPackageConfigurations::get));
                     // hard code Linux here, because we are using it inside a docker container
                     task.getJFrogCli().set(JFrogPlugin.getExecutable(target, OS.LINUX));
                     task.onlyIf(runningOnSupportedArchitecture(extension));
@@ -223,38 +252,17 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
                                 } : null;
 
                 target.getRepositories().ivy(repo -> {
-                    osPackageConfigurations.values().stream()
-                            .map(Configuration::getName)
+                    osPackageConfigurations.keySet().stream()
+                            .map(DockerBaseImageBuildPlugin::osPackageConfigurationName)
                             .forEach(configurationName -> configureRepoForConfiguration(
                                     repoUrl, credentialsAction, repo, configurationName
                             ));
                 });
             }
-
-            final Path lockfilePath = RegularFileUtils.toPath(extension.getLockFileLocation());
-            if (Files.exists(lockfilePath)) {
-                try {
-                    final BaseLockfile lockfile = BaseLockfile.parse(
-                            Files.newBufferedReader(lockfilePath)
-                    );
-                    // Add all packages to a configuration to make verification data easier
-                    final Map<Architecture, Packages> lockfilePackages = lockfile.getPackages();
-                    for (Map.Entry<Architecture, Configuration> configuration : osPackageConfigurations.entrySet()) {
-                        if (lockfilePackages.containsKey(configuration.getKey())) {
-                            lockfilePackages.get(configuration.getKey()).getPackages()
-                                    .stream()
-                                    .forEach(pkg -> addPackageAsDependency(target, extension, configuration, pkg));
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-            }
         });
     }
 
     protected static Provider<List<ContainerImageBuildInstruction>> instructionsFilteredForArch(Project target, BaseImageExtension extension, Architecture arch) {
-        System.out.println(extension.getInstructions());
         return target.provider(() -> {
             return extension.getInstructions().stream()
                     .filter(instruction -> {
@@ -292,13 +300,50 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
         }
     }
 
-    protected static void addPackageAsDependency(Project target, BaseImageExtension extension, Map.Entry<Architecture, Configuration> packageConfiguration, UnchangingPackage pkg) {
+    private static <T extends Task & ImageBuildable> void limitEmulatedBuild(
+            Project target,
+            T task,
+            Architecture arch,
+            String nativeTaskName,
+            Provider<EmulatedBuildLimiter> emulatedBuildLimiter
+    ) {
+        if (arch.equals(Architecture.current())) {
+            return;
+        }
+        // Gradle doesn't run more tasks using the service than its max parallel usages, and prefers to run the native
+        // build first, which is usually what the rest of the build is waiting for
+        task.usesService(emulatedBuildLimiter);
+        task.shouldRunAfter(target.getTasks().named(nativeTaskName));
+    }
+
+    private static String osPackageConfigurationName(Architecture arch) {
+        return "_osPackageRepo_" + arch.dockerName();
+    }
+
+    private static void addLockedPackagesAsDependencies(Project target, BaseImageExtension extension, Architecture arch, DependencySet dependencies) {
+        final Path lockfilePath = RegularFileUtils.toPath(extension.getLockFileLocation());
+        if (!Files.exists(lockfilePath)) {
+            return;
+        }
+        final BaseLockfile lockfile;
+        try (Reader reader = Files.newBufferedReader(lockfilePath)) {
+            lockfile = BaseLockfile.parse(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final Packages packages = lockfile.getPackages().get(arch);
+        if (packages != null) {
+            packages.getPackages().forEach(pkg -> dependencies.add(packageAsDependency(target, extension, arch, pkg)));
+        }
+    }
+
+    protected static Dependency packageAsDependency(Project target, BaseImageExtension extension, Architecture arch, UnchangingPackage pkg) {
         final String type = extension.getOSDistribution().get()
                 .name().toLowerCase(Locale.ROOT);
         final Map<String, String> dependencyNotation = Map.of(
                 "group", type + (
                         extension.getOSDistribution().get().equals(OSDistribution.WOLFI) ?
-                                "/" + packageConfiguration.getKey().toString().toLowerCase(Locale.ROOT) :
+                                "/" + arch.toString().toLowerCase(Locale.ROOT) :
                                 ""
                 ),
                 "name", pkg.name(),
@@ -319,10 +364,7 @@ public abstract class DockerBaseImageBuildPlugin implements Plugin<Project> {
                 }
         );
 
-        target.getDependencies().add(
-                packageConfiguration.getValue().getName(),
-                dependencyNotation
-        );
+        return target.getDependencies().create(dependencyNotation);
     }
 
     @NotNull
@@ -300,7 +300,7 @@ public abstract class DockerBaseImageBuildTask extends DefaultTask implements Im
 
     @TaskAction
     protected void taskAction() {
-        buildDockerImage();
+        getBuildTimes().get().run(getArchitecture().get(), this::buildDockerImage);
         final Long maxSizeMB = getMaxOutputSizeMB().get();
         if (maxSizeMB > 0) {
             try {
@@ -24,16 +24,19 @@ import co.elastic.gradle.dockerbase.lockfile.BaseLockfile;
 import co.elastic.gradle.dockerbase.lockfile.Packages;
 import co.elastic.gradle.dockerbase.lockfile.UnchangingPackage;
 import co.elastic.gradle.utils.Architecture;
+import co.elastic.gradle.utils.ProcessRunner;
 import co.elastic.gradle.utils.RegularFileUtils;
 import co.elastic.gradle.utils.RetryUtils;
 import co.elastic.gradle.utils.docker.DockerPluginConventions;
 import co.elastic.gradle.utils.docker.DockerUtils;
 import co.elastic.gradle.utils.docker.UnchangingContainerReference;
 import co.elastic.gradle.utils.docker.instruction.*;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.DirectoryProperty;
@@ -51,6 +54,7 @@ import org.gradle.process.ExecOperations;
 import javax.inject.Inject;
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -58,6 +62,7 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -76,6 +81,8 @@ public abstract class DockerLockfileTask extends DefaultTask implements ImageBui
                 getProjectLayout().getBuildDirectory().dir(getName())
         );
         getIsolateFromExternalRepos().convention(false);
+        getProcessRunner().convention(ProcessRunner.register(getProject().getGradle()));
+        usesService(getProcessRunner());
         rootCopySpec = getProject().getObjects().newInstance(DefaultCopySpec.class);
         rootCopySpec.addChildSpecListener(DockerPluginConventions.mapCopySpecToTaskInputs(this));
     }
@@ -202,11 +209,25 @@ public abstract class DockerLockfileTask extends DefaultTask implements ImageBui
     @Inject
     protected abstract ExecOperations getExecOperations();
 
+    @Internal
+    public abstract Property<ProcessRunner> getProcessRunner();
+
     @Inject
     protected abstract ObjectFactory getObjectFactory();
 
     @TaskAction
-    public void generateLockfile() throws IOException {
+    public void generateLockfile() {
+        final Runnable build = () -> {
+            try {
+                buildAndWriteLockfile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        getBuildTimes().get().run(getArchitecture().get(), build);
+    }
+
+    private void buildAndWriteLockfile() throws IOException {
         DockerDaemonActions daemonActions = getObjectFactory().newInstance(DockerDaemonActions.class, this);
         DockerUtils dockerUtils = new DockerUtils(getExecOperations());
 
@@ -218,38 +239,53 @@ public abstract class DockerLockfileTask extends DefaultTask implements ImageBui
                 "\nRunning the created image to extract package information and upload packages with {} ...",
                 getJFrogCli().get().getAsFile().toPath()
         );
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-
-            final URL repoUrl = getOsPackageRepository().get();
-            final Optional<String[]> userinfo = Optional.ofNullable(repoUrl.getUserInfo()).map(it -> it.split(":"));
-            String jfrogCLiArgs = String.format(
-                    "--retries=25 --retry-wait-time=5s --threads=10 --insecure-tls %s --url %s",
-                    userinfo.map(it -> String.format("--user %s --password %s", it[0], it[1])).orElse(""),
-                    new URL(repoUrl.toString().replace(repoUrl.getUserInfo() + "@", "") +
-                            "/" + getOSDistribution().get().name().toLowerCase(Locale.ROOT)
-                    )
-            );
-            dockerUtils.exec(spec -> {
-                spec.setStandardOutput(byteArrayOutputStream);
-                spec.setErrorOutput(System.err);
-                spec.commandLine(
-                        "docker", "run", "--rm",
-                        "-v", archiveScript + ":/mnt/" + ARCHIVE_PACKAGES_NAME,
-                        "-v", getJFrogCli().get().getAsFile().toPath() + ":/mnt/jfrog-cli",
-                        "--entrypoint",  getOSDistribution().get().equals(OSDistribution.WOLFI) ? "/bin/sh" : "/bin/bash",
-                        "-eJFROG_CLI_ARGS=" + jfrogCLiArgs,
-                        uuid,
-                        "/mnt/" + ARCHIVE_PACKAGES_NAME
-                );
-            });
-            writeLockfile(byteArrayOutputStream);
-            getLogger().lifecycle("Written new lockfile to {}", getLockFileLocation().get());
-        }
+        final URL repoUrl = getOsPackageRepository().get();
+        final Optional<String[]> userinfo = Optional.ofNullable(repoUrl.getUserInfo()).map(it -> it.split(":"));
+        String jfrogCLiArgs = String.format(
+                "--retries=25 --retry-wait-time=5s --threads=10 --insecure-tls %s --url %s",
+                userinfo.map(it -> String.format("--user %s --password %s", it[0], it[1])).orElse(""),
+                new URL(repoUrl.toString().replace(repoUrl.getUserInfo() + "@", "") +
+                        "/" + getOSDistribution().get().name().toLowerCase(Locale.ROOT)
+                )
+        );
+        // The package list can be large, so it's parsed as the script writes it
+        final List<UnchangingPackage> installedPackages = new ArrayList<>();
+        getProcessRunner().get().run(
+                ProcessRunner.command(
+                                "docker", "run", "--rm",
+                                "-v", archiveScript + ":/mnt/" + ARCHIVE_PACKAGES_NAME,
+                                "-v", getJFrogCli().get().getAsFile().toPath() + ":/mnt/jfrog-cli",
+                                "--entrypoint", getOSDistribution().get().equals(OSDistribution.WOLFI) ? "/bin/sh" : "/bin/bash",
+                                "-eJFROG_CLI_ARGS=" + jfrogCLiArgs,
+                                uuid.toString(),
+                                "/mnt/" + ARCHIVE_PACKAGES_NAME
+                        )
+                        .environment(DockerUtils.environment())
+                        .stdout(output -> readPackages(output, installedPackages))
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+        );
+        writeLockfile(installedPackages);
+        getLogger().lifecycle("Written new lockfile to {}", getLockFileLocation().get());
         dockerUtils.exec(spec -> spec.commandLine("docker", "image", "rm", uuid));
     }
 
 
-    private void writeLockfile(ByteArrayOutputStream csvStream) throws IOException {
+    private static void readPackages(InputStream csvStream, List<UnchangingPackage> packages) throws IOException {
+        final CSVParser parser = CSVParser.parse(new InputStreamReader(csvStream, StandardCharsets.UTF_8), CSVFormat.DEFAULT);
+        for (CSVRecord record : parser) {
+            if (record.size() < 4) {
+                throw new RuntimeException("CSV line from script not valid: " + record.get(0));
+            }
+            packages.add(new UnchangingPackage(
+                    record.get(0),
+                    record.get(1),
+                    record.get(2),
+                    record.get(3)
+            ));
+        }
+    }
+
+    private void writeLockfile(List<UnchangingPackage> installedPackages) throws IOException {
         final BaseLockfile oldLockfile;
         if (Files.exists(RegularFileUtils.toPath(getLockFileLocation()))) {
             oldLockfile = BaseLockfile.parse(Files.newBufferedReader(RegularFileUtils.toPath(getLockFileLocation())));
@@ -264,32 +300,16 @@ public abstract class DockerLockfileTask extends DefaultTask implements ImageBui
             image = null;
         }
 
-        final String csvString = csvStream.toString().trim();
-        if (csvString.isEmpty()) {
+        if (installedPackages.isEmpty()) {
             throw new IllegalStateException("Failed to read installed packages from docker image");
         }
-        try (Reader reader = new StringReader(csvString)) {
-            CSVParser parser = CSVParser.parse(reader, CSVFormat.DEFAULT);
-            packages.put(
-                    getArchitecture().get(),
-                    new Packages(
-                            // Keep the latest version only. CentOS can keep multiple versions installed, e.g. kernel-core
-                            Packages.getUniquePackagesWithMaxVersion(parser.getRecords().stream()
-                                    .map(record -> {
-                                        if (record.size() < 4) {
-                                            throw new RuntimeException("CSV line from script not valid: " + record.get(0));
-                                        }
-                                        return new UnchangingPackage(
-                                                record.get(0),
-                                                record.get(1),
-                                                record.get(2),
-                                                record.get(3)
-                                        );
-                                    }).toList()
-                            )
-                    )
-            );
-        }
+        packages.put(
+                getArchitecture().get(),
+                new Packages(
+                        // Keep the latest version only. CentOS can keep multiple versions installed, e.g. kernel-core
+                        Packages.getUniquePackagesWithMaxVersion(installedPackages)
+                )
+        );
 
         Optional<UnchangingContainerReference> newImage = getActualInstructions().stream()
                 .filter(each -> each instanceof From)
@@ -330,38 +350,36 @@ public abstract class DockerLockfileTask extends DefaultTask implements ImageBui
         if (manifestDigest != null) {
             return manifestDigest;
         }
-        DockerUtils daemonActions = new DockerUtils(getExecOperations());
         return RetryUtils.retry(() -> {
-                    try (ByteArrayOutputStream stdout = new ByteArrayOutputStream()) {
-                        daemonActions.exec(spec -> {
-                            spec.setStandardOutput(stdout);
-                            spec.commandLine("docker", "manifest", "inspect", image);
-                        });
-                        try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(stdout.toByteArray()))) {
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode root = mapper.readTree(reader);
-                            String digest = null;
-                            Iterator<JsonNode> manifests = root.path("manifests").elements();
-                            while (manifests.hasNext()) {
-                                JsonNode manifest = manifests.next();
-                                if (getArchitecture().get().dockerName().equals(manifest.path("platform").path("architecture").asText())) {
-                                    digest = manifest.path("digest").asText(null);
-                                    break;
-                                }
-                            }
-                            if (digest == null) {
-                                // Happens when the tag does not point to a manifest list
-                                // We could make this work for a single platform if we really wanted to, for now it's an error
-                                throw new GradleException("Can't find manifest digest from docker output. " +
-                                                          "Does the image have a manifest?\n" + stdout
-                                );
-                            }
-                            manifestDigest = digest;
-                            return digest;
+                    final AtomicReference<JsonNode> root = new AtomicReference<>();
+                    getProcessRunner().get().run(
+                            ProcessRunner.command("docker", "manifest", "inspect", image)
+                                    .environment(DockerUtils.environment())
+                                    .stdout(output -> root.set(
+                                            new ObjectMapper()
+                                                    .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+                                                    .readTree(output)
+                                    ))
+                                    .stderr(ProcessRunner.OutputConsumer.to(System.err))
+                    );
+                    String digest = null;
+                    Iterator<JsonNode> manifests = root.get().path("manifests").elements();
+                    while (manifests.hasNext()) {
+                        JsonNode manifest = manifests.next();
+                        if (getArchitecture().get().dockerName().equals(manifest.path("platform").path("architecture").asText())) {
+                            digest = manifest.path("digest").asText(null);
+                            break;
                         }
-                    } catch (IOException e) {
-                        throw new UncheckedIOException("Failed to read the image manifest", e);
                     }
+                    if (digest == null) {
+                        // Happens when the tag does not point to a manifest list
+                        // We could make this work for a single platform if we really wanted to, for now it's an error
+                        throw new GradleException("Can't find manifest digest from docker output. " +
+                                                  "Does the image have a manifest?\n" + root.get()
+                        );
+                    }
+                    manifestDigest = digest;
+                    return digest;
                 })
                 .maxAttempt(3)
                 .exponentialBackoff(1000, 100000)
@@ -19,6 +19,7 @@
 package co.elastic.gradle.dockerbase;
 
 import co.elastic.gradle.utils.Architecture;
+import co.elastic.gradle.utils.ExtractCompressedTar;
 import co.elastic.gradle.utils.RegularFileUtils;
 import com.google.cloud.tools.jib.api.JibContainer;
 import org.gradle.api.DefaultTask;
@@ -28,6 +29,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 import javax.inject.Inject;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.time.Instant;
@@ -62,11 +64,20 @@ abstract public class DockerPushTask extends DefaultTask {
     public void pushImage() throws IOException {
         final String tag = getTag().get();
         final Instant createdAt = getCreatedAt().get();
-        final JibContainer container = new JibPushActions().pushImage(
-                RegularFileUtils.toPath(getImageArchive()),
-                tag,
-                createdAt
+        final JibContainer container;
+        // Jib extracts the archive again for every retry
+        final Closeable extractionCache = ExtractCompressedTar.cacheExtraction(
+                RegularFileUtils.toPath(getImageArchive()), getTemporaryDir().toPath()
         );
+        try {
+            container = new JibPushActions().pushImage(
+                    RegularFileUtils.toPath(getImageArchive()),
+                    tag,
+                    createdAt
+            );
+        } finally {
+            extractionCache.close();
+        }
 
         final String repoDigest = container.getDigest().toString();
         Files.writeString(
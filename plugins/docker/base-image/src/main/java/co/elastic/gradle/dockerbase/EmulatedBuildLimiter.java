@@ -0,0 +1,36 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.dockerbase;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Build wide service that keeps image builds for other architectures, which run under emulation and are many times
+ * slower than native ones, from taking over the host.
+ * <p>
+ * Only tasks building with emulation use the service, and it's registered with {@code maxParallelUsages} set to
+ * {@code maxConcurrentEmulatedBuilds}, so Gradle doesn't start more of these at the same time, and can run other work
+ * instead of having tasks wait for their turn while holding a worker. The service itself holds no state, declaring the
+ * usage is what limits the tasks. The time spent building is recorded by {@link ImageBuildTimes}.
+ */
+public abstract class EmulatedBuildLimiter implements BuildService<BuildServiceParameters.None> {
+
+    public static final String NAME = "emulatedBuildLimiter";
+}
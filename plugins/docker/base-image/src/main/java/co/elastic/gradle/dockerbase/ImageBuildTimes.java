@@ -0,0 +1,62 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.dockerbase;
+
+import co.elastic.gradle.utils.Architecture;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Build wide service that adds up the wall clock time spent building images for each architecture, native and
+ * emulated, and logs it at the end of the build so the cost of emulation can be compared to the native builds.
+ */
+public abstract class ImageBuildTimes implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+    public static final String NAME = "imageBuildTimes";
+
+    private static final Logger logger = Logging.getLogger(ImageBuildTimes.class);
+
+    private final Map<Architecture, AtomicLong> wallClockMillis = new ConcurrentHashMap<>();
+
+    public void run(Architecture architecture, Runnable build) {
+        final long start = System.currentTimeMillis();
+        try {
+            build.run();
+        } finally {
+            wallClockMillis.computeIfAbsent(architecture, key -> new AtomicLong())
+                    .addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public void close() {
+        wallClockMillis.forEach((architecture, millis) -> logger.info(
+                "{} image builds for {} took {} in total",
+                architecture.equals(Architecture.current()) ? "Native" : "Emulated",
+                architecture.dockerName(), Duration.ofMillis(millis.get())
+        ));
+    }
+}
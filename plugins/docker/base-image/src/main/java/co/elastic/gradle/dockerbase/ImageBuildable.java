@@ -61,4 +61,7 @@ public interface ImageBuildable {
 
     @Input
     Property<Architecture> getArchitecture();
+
+    @Internal
+    Property<ImageBuildTimes> getBuildTimes();
 }
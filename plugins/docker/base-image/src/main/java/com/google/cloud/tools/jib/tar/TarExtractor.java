@@ -29,7 +29,7 @@ public class TarExtractor {
     //       Thus we replace the class that deals with extracting tar archives to add support for it.
     //       Ideally we'll contribute it upstream and will be able to remove the hack.
     public static void extract(Path source, Path destination) throws IOException {
-        ExtractCompressedTar.extract(source, destination);
+        ExtractCompressedTar.extractCached(source, destination);
     }
 
 }
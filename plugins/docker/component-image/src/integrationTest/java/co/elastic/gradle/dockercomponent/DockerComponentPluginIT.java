@@ -20,6 +20,7 @@ package co.elastic.gradle.dockercomponent;
 
 import co.elastic.gradle.TestkitIntegrationTest;
 import co.elastic.gradle.sandbox.SandboxDockerExecTask;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.gradle.internal.impldep.org.testng.Assert;
 import org.gradle.testkit.runner.BuildResult;
@@ -32,6 +33,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -41,9 +43,12 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static co.elastic.gradle.AssertContains.assertContains;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class DockerComponentPluginIT extends TestkitIntegrationTest {
 
@@ -325,6 +330,100 @@ public class DockerComponentPluginIT extends TestkitIntegrationTest {
         assertTrue(tasks.indexOf(archive) < tasks.indexOf(dockerComponentImageBuild), "Expected :archive to run before the image build");
     }
 
+    @Test
+    public void linkContextFiles() throws IOException {
+        helper.writeFile("first/linked.txt", "linked");
+        helper.writeFile("first/duplicate.txt", "first");
+        helper.writeFile("second/duplicate.txt", "second");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(helper.projectDir().resolve("archive.zip")))) {
+            zip.putNextEntry(new ZipEntry("archived.txt"));
+            zip.write("archived".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        helper.buildScript("""
+                plugins {
+                       id("co.elastic.docker-component")
+                }
+                dockerComponentImage {
+                    linkContextFiles.set(true)
+                    buildAll {
+                        from("ubuntu", "20.04")
+                        copySpec {
+                            from("first")
+                            from("second")
+                            from(zipTree("archive.zip"))
+                            into("home")
+                            duplicatesStrategy = DuplicatesStrategy.EXCLUDE
+                        }
+                    }
+                }
+                """);
+        Files.copy(Objects.requireNonNull(getClass().getResourceAsStream("/docker-component-image.lock")), helper.projectDir().resolve("docker-component-image.lock"));
+
+        runGradleTask("dockerComponentImageBuild");
+
+        final List<Path> homes = findInContext("home");
+        assertFalse(homes.isEmpty(), "Expected the copy spec in the docker context");
+        for (Path home : homes) {
+            assertTrue(Files.isSameFile(helper.projectDir().resolve("first/linked.txt"), home.resolve("linked.txt")));
+            // The first file for a destination wins, and the later one doesn't write through the link
+            assertTrue(Files.isSameFile(helper.projectDir().resolve("first/duplicate.txt"), home.resolve("duplicate.txt")));
+            assertEquals("first", Files.readString(home.resolve("duplicate.txt")).trim());
+            // Files from archives are extracted to a temporary location by Gradle, so these are copied
+            assertEquals("archived", Files.readString(home.resolve("archived.txt")));
+            assertEquals(1, Files.getAttribute(home.resolve("archived.txt"), "unix:nlink"));
+        }
+        assertEquals("second", Files.readString(helper.projectDir().resolve("second/duplicate.txt")).trim());
+        assertEquals("first", Files.readString(helper.projectDir().resolve("first/duplicate.txt")).trim());
+    }
+
+    @Test
+    public void linkContextFilesFromOtherFileSystem() throws IOException {
+        final Path otherFileSystem = Paths.get("/dev/shm");
+        assumeTrue(
+                Files.isDirectory(otherFileSystem) &&
+                !Files.getFileStore(otherFileSystem).equals(Files.getFileStore(helper.projectDir())),
+                "Needs /dev/shm on a different file system than the project"
+        );
+        final Path source = Files.createTempDirectory(otherFileSystem, "linkContextFiles");
+        try {
+            Files.writeString(source.resolve("copied.txt"), "copied");
+            helper.buildScript(String.format("""
+                    plugins {
+                           id("co.elastic.docker-component")
+                    }
+                    dockerComponentImage {
+                        linkContextFiles.set(true)
+                        buildAll {
+                            from("ubuntu", "20.04")
+                            copySpec {
+                                from("%s")
+                                into("home")
+                            }
+                        }
+                    }
+                    """, source));
+            Files.copy(Objects.requireNonNull(getClass().getResourceAsStream("/docker-component-image.lock")), helper.projectDir().resolve("docker-component-image.lock"));
+
+            runGradleTask("dockerComponentImageBuild");
+
+            final List<Path> homes = findInContext("home");
+            assertFalse(homes.isEmpty(), "Expected the copy spec in the docker context");
+            for (Path home : homes) {
+                assertEquals("copied", Files.readString(home.resolve("copied.txt")));
+                assertFalse(Files.isSameFile(source.resolve("copied.txt"), home.resolve("copied.txt")));
+            }
+        } finally {
+            FileUtils.deleteDirectory(source.toFile());
+        }
+    }
+
+    private List<Path> findInContext(String name) throws IOException {
+        try (Stream<Path> s = Files.walk(helper.projectDir().resolve("build/dockerComponentImageBuild/context"))) {
+            return s.filter(each -> each.getFileName().toString().equals(name)).toList();
+        }
+    }
+
     @Test
     public void testIntegrationWithSandbox() throws IOException {
         Files.copy(Objects.requireNonNull(getClass().getResourceAsStream("/docker-component-image.lock")), helper.projectDir().resolve("docker-component-image.lock"));
@@ -28,6 +28,7 @@ import co.elastic.gradle.utils.docker.instruction.From;
 import co.elastic.gradle.utils.docker.instruction.FromLocalArchive;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
+import org.gradle.api.file.FileSystemOperations;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
@@ -44,6 +45,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -153,6 +155,9 @@ abstract public class ComponentBuildTask extends DefaultTask {
     @Inject
     protected abstract JibActions getJibActions();
 
+    @Inject
+    protected abstract FileSystemOperations getFilesystemOperations();
+
     @Internal
     public Provider<Map<Architecture, String>> getImageId() {
         return getImageIdFile().map(idFiles -> idFiles.entrySet()
@@ -169,17 +174,26 @@ abstract public class ComponentBuildTask extends DefaultTask {
     @Input
     public abstract Property<Long> getMaxOutputSizeMB();
 
+    @Input
+    @Optional
+    public abstract Property<Instant> getCreationTime();
+
+    @Internal
+    public abstract Property<Boolean> getLinkContextFiles();
+
     @Inject
     protected abstract ProviderFactory getProviderFactory();
 
     @TaskAction
     protected void buildComponentImages() throws IOException {
-        getProject().sync(spec -> {
-                    spec.into(getProjectLayout().getBuildDirectory().file(getName() + "/" + LAYERS_DIR).get().getAsFile());
-                    spec.with(rootCopySpec);
-                }
+        ContextStaging.sync(
+                getFilesystemOperations(),
+                getProjectLayout().getBuildDirectory().file(getName() + "/" + LAYERS_DIR).get().getAsFile().toPath(),
+                rootCopySpec,
+                getLinkContextFiles().getOrElse(false)
         );
         JibActions actions = new JibActions();
+        final Instant createdAt = getCreationTime().getOrElse(Instant.now());
 
         final ComponentLockfile lockFile;
         if (isStaticFrom()) {
@@ -203,6 +217,7 @@ abstract public class ComponentBuildTask extends DefaultTask {
                     getImageArchive().get().get(architecture),
                     getImageIdFile().get().get(architecture),
                     getCreatedAtFile().get().get(architecture),
+                    createdAt,
                     entry.getValue().stream()
                             .map(instruction -> {
                                 if (instruction instanceof From from) {
@@ -29,6 +29,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.ProviderFactory;
 
 import javax.inject.Inject;
+import java.time.Instant;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -68,10 +69,42 @@ public abstract  class ComponentImageBuildExtension implements ExtensionAware {
 
 
         getMaxOutputSizeMB().convention(-1L);
+
+        getLocalImportFromArchive().convention(false);
+
+        getLinkContextFiles().convention(false);
     }
 
     public abstract Property<Long> getMaxOutputSizeMB();
 
+    /**
+     * Import the archive created by the build task into the local daemon instead of building the image again.
+     */
+    public abstract Property<Boolean> getLocalImportFromArchive();
+
+    /**
+     * Hard link files into the build context instead of copying them where possible.
+     */
+    public abstract Property<Boolean> getLinkContextFiles();
+
+    /**
+     * Creation time of the built images. Defaults to the time of the build, setting it to a stable value makes
+     * archives built from the same inputs identical.
+     */
+    public abstract Property<Instant> getCreationTime();
+
+    @SuppressWarnings("unused")
+    public void creationTimeFromGitCommit() {
+        getCreationTime().set(
+                getProviderFactory().exec(spec -> spec.commandLine("git", "log", "-1", "--format=%ct"))
+                        .getStandardOutput()
+                        .getAsText()
+                        .map(String::trim)
+                        .map(Long::parseLong)
+                        .map(Instant::ofEpochSecond)
+        );
+    }
+
     @Inject
     protected abstract ProjectLayout getProjectLayout();
 
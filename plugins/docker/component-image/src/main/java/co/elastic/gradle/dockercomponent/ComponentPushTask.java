@@ -20,6 +20,7 @@ package co.elastic.gradle.dockercomponent;
 
 
 import co.elastic.gradle.utils.Architecture;
+import co.elastic.gradle.utils.ExtractCompressedTar;
 import co.elastic.gradle.utils.GradleUtils;
 import co.elastic.gradle.utils.RegularFileUtils;
 import com.google.cloud.tools.jib.api.JibContainer;
@@ -32,6 +33,7 @@ import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
 
 import javax.inject.Inject;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
@@ -119,11 +121,24 @@ abstract public class ComponentPushTask extends DefaultTask {
             final String tag = getTags().get().get(architecture);
             final RegularFile createdAtFile = getCreatedAtFiles().get().get(architecture);
             final Instant createdAt = Instant.parse(RegularFileUtils.readString(createdAtFile).trim());
-            final JibContainer container = jibActions.pushImage(
-                imageArchive.getAsFile().toPath(), 
-                tag,
-                createdAt
-            );
+            final JibContainer container;
+            // Jib extracts the archive again for every retry
+            try {
+                final Closeable extractionCache = ExtractCompressedTar.cacheExtraction(
+                        imageArchive.getAsFile().toPath(), getTemporaryDir().toPath()
+                );
+                try {
+                    container = jibActions.pushImage(
+                        imageArchive.getAsFile().toPath(),
+                        tag,
+                        createdAt
+                    );
+                } finally {
+                    extractionCache.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
             final String repoDigest = container.getDigest().toString();
             try {
                 Files.writeString(
@@ -0,0 +1,333 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.dockercomponent;
+
+import org.gradle.api.file.DuplicateFileCopyingException;
+import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.internal.file.FileCollectionInternal;
+import org.gradle.api.internal.file.FileCollectionStructureVisitor;
+import org.gradle.api.internal.file.FileTreeInternal;
+import org.gradle.api.internal.file.collections.FileSystemMirroringFileTree;
+import org.gradle.api.internal.file.copy.CopySpecInternal;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.util.PatternSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public final class ContextStaging {
+
+    private static final Logger logger = Logging.getLogger(ContextStaging.class);
+    private static final FileTime DIRECTORY_TIME = FileTime.fromMillis(0);
+    // 2000-01-01T00:00:00Z, content times are in the range of ~70 years after this
+    private static final long CONTENT_TIME_BASE = 946684800000L;
+    private static final long CONTENT_TIME_MASK = (1L << 41) - 1;
+
+    private ContextStaging() {
+    }
+
+    public static void sync(
+            FileSystemOperations fileSystemOperations,
+            Path contextRoot,
+            CopySpecInternal rootCopySpec,
+            boolean linkFiles
+    ) {
+        // Actions like `rename` or `filter` change the destination or contents after we see the file, so we can only
+        // link when there are none.
+        final boolean canLink = linkFiles && !rootCopySpec.hasCustomActions();
+        final Set<String> linked = ConcurrentHashMap.newKeySet();
+        // Without custom actions the contents in the context are the same as in the source, so the content time can be
+        // reused as long as the source doesn't change. Destinations with more than one source are not tracked.
+        final Map<String, File> sources = new ConcurrentHashMap<>();
+        // Whether the first file seen for each destination was linked
+        final Map<String, Boolean> seen = new HashMap<>();
+        final List<Path> fileSystemSources = getFileSystemSources(rootCopySpec);
+        // We start from an empty directory rather than syncing. Sync would remove the linked files since these are
+        // excluded from the copy, and copying over a link left from a previous run would write to the source.
+        // Content times are derived from the contents, so nothing is lost.
+        fileSystemOperations.delete(spec -> spec.delete(contextRoot));
+        fileSystemOperations.copy(spec -> {
+            spec.into(contextRoot);
+            spec.with(rootCopySpec);
+            if (!rootCopySpec.hasCustomActions()) {
+                spec.eachFile(details -> {
+                    final String path = details.getRelativePath().getPathString();
+                    final Boolean linkedBefore = seen.get(path);
+                    if (linkedBefore != null) {
+                        sources.remove(path);
+                        if (linkedBefore) {
+                            if (!handleDuplicateOfLinked(details, contextRoot.resolve(path))) {
+                                linked.remove(path);
+                                seen.put(path, false);
+                            }
+                        }
+                        // Otherwise Gradle saw the first one too and handles the duplicate as configured
+                        return;
+                    }
+                    final boolean onFileSystem = isOnFileSystem(details, fileSystemSources);
+                    if (onFileSystem) {
+                        sources.put(path, details.getFile());
+                    }
+                    final boolean isLinked = canLink && onFileSystem && link(details, contextRoot.resolve(path));
+                    if (isLinked) {
+                        linked.add(path);
+                        details.exclude();
+                    }
+                    seen.put(path, isLinked);
+                });
+            }
+        });
+        setContentTimes(contextRoot, linked, sources, contextRoot.resolveSibling(contextRoot.getFileName() + ".times"));
+    }
+
+    /**
+     * Gradle never sees linked files since these are excluded from the copy, so it can't apply the duplicates strategy
+     * to later files for the same destination, and we do it instead.
+     *
+     * @return true if the linked file is kept
+     */
+    private static boolean handleDuplicateOfLinked(FileCopyDetails details, Path destination) {
+        final DuplicatesStrategy strategy = details.getDuplicatesStrategy();
+        switch (strategy) {
+            case EXCLUDE -> {
+                details.exclude();
+                return true;
+            }
+            case INCLUDE, WARN -> {
+                if (strategy == DuplicatesStrategy.WARN) {
+                    logger.warn(
+                            "Encountered duplicate path \"{}\" during copy operation configured with " +
+                            "DuplicatesStrategy.WARN", details.getRelativePath()
+                    );
+                }
+                // Gradle copies the later file, which would write through the link to the source of the first one
+                try {
+                    Files.delete(destination);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to replace " + destination + " in the docker context", e);
+                }
+                return false;
+            }
+            case FAIL -> throw new DuplicateFileCopyingException(String.format(
+                    "Encountered duplicate path \"%s\" during copy operation configured with DuplicatesStrategy.FAIL",
+                    details.getRelativePath()
+            ));
+            default -> throw new DuplicateFileCopyingException(String.format(
+                    "Entry %s is a duplicate but no duplicate handling strategy has been set.",
+                    details.getRelativePath()
+            ));
+        }
+    }
+
+    private static boolean link(FileCopyDetails details, Path destination) {
+        final File source = details.getFile();
+        if (!source.isFile()) {
+            return false;
+        }
+        try {
+            // Jib reads the permissions from the file, so we can only link if the copy spec doesn't change them
+            if (details.getMode() != toMode(Files.getPosixFilePermissions(source.toPath()))) {
+                return false;
+            }
+            Files.createDirectories(destination.getParent());
+            Files.createLink(destination, source.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the source is on a different file system, let Gradle copy it
+            return false;
+        }
+    }
+
+    /**
+     * The directories of the file trees and the individual files the copy spec copies from. Gradle extracts files from
+     * archive trees to a temporary location instead, where these might have the same last modified time regardless of
+     * the contents, so these can't be linked.
+     */
+    private static List<Path> getFileSystemSources(CopySpecInternal rootCopySpec) {
+        final List<Path> sources = new ArrayList<>();
+        ((FileCollectionInternal) rootCopySpec.buildRootResolver().getAllSource()).visitStructure(
+                new FileCollectionStructureVisitor() {
+                    @Override
+                    public void visitCollection(FileCollectionInternal.Source source, Iterable<File> contents) {
+                        contents.forEach(file -> sources.add(file.toPath()));
+                    }
+
+                    @Override
+                    public void visitFileTree(File root, PatternSet patterns, FileTreeInternal fileTree) {
+                        sources.add(root.toPath());
+                    }
+
+                    @Override
+                    public void visitFileTreeBackedByFile(
+                            File file, FileTreeInternal fileTree, FileSystemMirroringFileTree sourceTree
+                    ) {
+                        // Archive trees
+                    }
+                }
+        );
+        return sources;
+    }
+
+    private static boolean isOnFileSystem(FileCopyDetails details, List<Path> fileSystemSources) {
+        final Path file = details.getFile().toPath();
+        return fileSystemSources.stream().anyMatch(file::startsWith);
+    }
+
+    private static int toMode(Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (PosixFilePermission permission : permissions) {
+            mode |= 1 << (8 - permission.ordinal());
+        }
+        return mode;
+    }
+
+    /**
+     * Jib keeps a cache of application layers that is selected by the path and last modified time of each file.
+     * Gradle doesn't preserve the time when copying, so every build would be a cache miss and Jib would have to hash
+     * and compress all layers again. We can't use the time of the source either as these are often not meaningful,
+     * e.g. all entries of a reproducible archive have the same one. Instead, we derive the time from the contents,
+     * hashing the files in parallel, so that Jib only rebuilds layers that actually changed.
+     * Linked files are skipped as these share the time with the source. Files that were copied from a known source
+     * reuse the time from the index for as long as the size and last modified time of the source don't change, so
+     * only new or changed files are hashed.
+     */
+    static void setContentTimes(Path contextRoot, Set<String> skip, Map<String, File> sources, Path indexFile) {
+        if (!Files.exists(contextRoot)) {
+            return;
+        }
+        final List<Path> paths;
+        try (Stream<Path> walk = Files.walk(contextRoot)) {
+            paths = walk
+                    .filter(path -> !skip.contains(contextRoot.relativize(path).toString()))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list " + contextRoot, e);
+        }
+        final Map<String, ContentTime> previous = readIndex(indexFile);
+        final Map<String, ContentTime> current = new ConcurrentHashMap<>();
+        final AtomicInteger hashed = new AtomicInteger();
+        paths.parallelStream().forEach(path -> {
+            try {
+                if (Files.isRegularFile(path)) {
+                    final File source = sources.get(contextRoot.relativize(path).toString());
+                    final BasicFileAttributes sourceAttributes = source == null ? null :
+                            Files.readAttributes(source.toPath(), BasicFileAttributes.class);
+                    final ContentTime known = source == null ? null : previous.get(source.getPath());
+                    final FileTime time;
+                    if (known != null && known.size() == sourceAttributes.size() && known.size() == Files.size(path) &&
+                        known.lastModified() == sourceAttributes.lastModifiedTime().toMillis()
+                    ) {
+                        time = FileTime.fromMillis(known.time());
+                    } else {
+                        time = contentTime(path);
+                        hashed.incrementAndGet();
+                    }
+                    if (source != null) {
+                        current.put(source.getPath(), new ContentTime(
+                                sourceAttributes.size(), sourceAttributes.lastModifiedTime().toMillis(), time.toMillis()
+                        ));
+                    }
+                    Files.setLastModifiedTime(path, time);
+                } else if (Files.isDirectory(path)) {
+                    // Directory contents are tracked by the files in them
+                    Files.setLastModifiedTime(path, DIRECTORY_TIME);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to set last modified time of " + path, e);
+            }
+        });
+        logger.info("Hashed {} files of the docker context in {} to derive their times", hashed.get(), contextRoot);
+        writeIndex(indexFile, current);
+    }
+
+    private record ContentTime(long size, long lastModified, long time) {
+    }
+
+    private static Map<String, ContentTime> readIndex(Path indexFile) {
+        final Map<String, ContentTime> index = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (Stream<String> lines = Files.lines(indexFile)) {
+            lines.forEach(line -> {
+                final String[] parts = line.split(" ", 4);
+                if (parts.length == 4) {
+                    index.put(parts[3], new ContentTime(
+                            Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])
+                    ));
+                }
+            });
+        } catch (IOException | NumberFormatException e) {
+            // The index is only an optimization, start over
+            index.clear();
+        }
+        return index;
+    }
+
+    private static void writeIndex(Path indexFile, Map<String, ContentTime> index) {
+        try {
+            Files.writeString(indexFile, index.entrySet().stream()
+                    .map(entry -> entry.getValue().size() + " " + entry.getValue().lastModified() + " " +
+                                  entry.getValue().time() + " " + entry.getKey())
+                    .collect(Collectors.joining("\n")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + indexFile, e);
+        }
+    }
+
+    private static FileTime contentTime(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        final long hash = ByteBuffer.wrap(digest.digest()).getLong();
+        return FileTime.fromMillis(CONTENT_TIME_BASE + (hash & CONTENT_TIME_MASK));
+    }
+}
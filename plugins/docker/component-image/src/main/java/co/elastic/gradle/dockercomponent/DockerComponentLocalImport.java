@@ -32,6 +32,7 @@ import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.FileSystemOperations;
 import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.file.copy.DefaultCopySpec;
 import org.gradle.api.provider.MapProperty;
@@ -106,18 +107,58 @@ abstract public class DockerComponentLocalImport extends DefaultTask implements
     @Inject
     protected abstract ProviderFactory getProviderFactory();
 
+    /**
+     * Archives built by {@link ComponentBuildTask}. When an archive is present for the current architecture it's
+     * imported into the daemon instead of building the image again from the instructions.
+     */
+    @Internal
+    public abstract MapProperty<Architecture, RegularFile> getImageArchive();
+
+    @Internal
+    public abstract Property<Boolean> getLinkContextFiles();
+
+    @InputFiles
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public Provider<RegularFile> getCurrentArchitectureImageArchive() {
+        return getImageArchive().getting(Architecture.current());
+    }
+
     @TaskAction
     public void localImport() throws IOException {
+        final JibActions actions = new JibActions();
+        if (getCurrentArchitectureImageArchive().isPresent()) {
+            actions.importArchiveToDaemon(
+                    getTag().get(),
+                    getImageIdFile().get(),
+                    RegularFileUtils.toPath(getCurrentArchitectureImageArchive())
+            );
+        } else {
+            buildToDaemon(actions);
+        }
+        Files.writeString(getMarker().toPath(), getTag().get());
+        getLogger().lifecycle("Image with Id {} tagged as {}",
+                RegularFileUtils.readString(getImageIdFile().get()).trim(),
+                getTag().get()
+        );
+        if (getLogger().isInfoEnabled()) {
+            (new DockerUtils(getExecOperations())).exec(execSpec -> {
+                execSpec.commandLine("docker", "inspect", getTag().get());
+            });
+        }
+    }
+
+    private void buildToDaemon(JibActions actions) {
         final Path contextRoot = getProject().getBuildDir().toPath()
                 .resolve(getName())
                 .resolve("context");
-        getFilesystemOperations().sync(spec -> {
-                    spec.into(contextRoot);
-                    spec.with(rootCopySpec);
-                }
+        ContextStaging.sync(
+                getFilesystemOperations(),
+                contextRoot,
+                rootCopySpec,
+                getLinkContextFiles().getOrElse(false)
         );
 
-        final JibActions actions = new JibActions();
         actions.buildToDaemon(
                 getTag().get(),
                 getImageIdFile().get(),
@@ -150,16 +191,6 @@ abstract public class DockerComponentLocalImport extends DefaultTask implements
                         .collect(Collectors.toList()),
                 contextRoot
         );
-        Files.writeString(getMarker().toPath(), getTag().get());
-        getLogger().lifecycle("Image with Id {} tagged as {}",
-                RegularFileUtils.readString(getImageIdFile().get()).trim(),
-                getTag().get()
-        );
-        if (getLogger().isInfoEnabled()) {
-            (new DockerUtils(getExecOperations())).exec(execSpec -> {
-                execSpec.commandLine("docker", "inspect", getTag().get());
-            });
-        }
     }
 
     private boolean isStaticFrom() {
@@ -26,9 +26,11 @@ import co.elastic.gradle.snyk.SnykCLIExecTask;
 import co.elastic.gradle.snyk.SnykPlugin;
 import co.elastic.gradle.utils.Architecture;
 import co.elastic.gradle.utils.GradleUtils;
+import co.elastic.gradle.utils.ProcessRunner;
 import co.elastic.gradle.utils.docker.InstructionCopySpecMapper;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 
 import java.util.Arrays;
@@ -72,6 +74,8 @@ public class DockerComponentPlugin implements Plugin<Project> {
                     task.getInstructions().set(extension.getInstructions());
                     task.getLockFileLocation().set(extension.getLockFileLocation());
                     task.getMaxOutputSizeMB().set(extension.getMaxOutputSizeMB());
+                    task.getCreationTime().set(extension.getCreationTime());
+                    task.getLinkContextFiles().set(extension.getLinkContextFiles());
                 }
         );
 
@@ -85,6 +89,7 @@ public class DockerComponentPlugin implements Plugin<Project> {
                     );
                     task.getInstructions().set(extension.getInstructions());
                     task.getLockFileLocation().set(extension.getLockFileLocation());
+                    task.getLinkContextFiles().set(extension.getLinkContextFiles());
                 }
         );
 
@@ -122,11 +127,23 @@ public class DockerComponentPlugin implements Plugin<Project> {
                 }
         );
 
+        final Provider<ManifestListPublicationService> manifestListPublication = target.getGradle().getSharedServices()
+                .registerIfAbsent(
+                        ManifestListPublicationService.NAME,
+                        ManifestListPublicationService.class,
+                        spec -> {
+                            spec.getParameters().getMaxConcurrentPushes().set(8);
+                            spec.getParameters().getProcessRunner().set(ProcessRunner.register(target.getGradle()));
+                        }
+                );
+
         TaskProvider<PushManifestListTask> pushManifestList = target.getTasks().register(
                 "pushManifestList",
                 PushManifestListTask.class,
                 task -> {
                     task.dependsOn(dockerComponentImagePush);
+                    task.getPublicationService().set(manifestListPublication);
+                    task.usesService(manifestListPublication);
                     task.getArchitectureTags().set(
                             dockerComponentImagePush.flatMap(ComponentPushTask::getTags)
                     );
@@ -196,11 +213,21 @@ public class DockerComponentPlugin implements Plugin<Project> {
                             InstructionCopySpecMapper.assignCopySpecs(instructions, task.rootCopySpec)
                     )
             );
+            // The copy specs are needed even when importing the archive, to build the image when there's no archive
+            // for the current architecture
             localImport.configure(task ->
                     extension.getInstructions().get().forEach((arch, instructions) ->
                             InstructionCopySpecMapper.assignCopySpecs(instructions, task.rootCopySpec)
                     )
             );
+            if (extension.getLocalImportFromArchive().get()) {
+                // Wire the archive only when configured to, otherwise we would always depend on the build task
+                localImport.configure(task ->
+                        task.getImageArchive().set(
+                                dockerComponentImageBuild.flatMap(ComponentBuildTask::getImageArchive)
+                        )
+                );
+            }
         });
     }
 }
@@ -155,6 +155,24 @@ public class JibActions {
                 instructions
         );
 
+        containerizeToDaemon(jibBuilder, localDockerDaemonTag, imageId);
+    }
+
+    public void importArchiveToDaemon(
+            String localDockerDaemonTag,
+            RegularFile imageId,
+            Path imageArchive
+    ) {
+        // The archive already has all the layers built, so we only need to re-create the image configuration with a
+        // fixed creation time instead of going through the instructions again.
+        containerizeToDaemon(
+                Jib.from(TarImage.at(imageArchive)),
+                localDockerDaemonTag,
+                imageId
+        );
+    }
+
+    private void containerizeToDaemon(JibContainerBuilder jibBuilder, String localDockerDaemonTag, RegularFile imageId) {
         // We need the image ID to stay constant when the inputs don't change so that we can use it for build avoidance,
         // but the creation time poses some challenges in this regard since it causes it to be always different.
         // Jib builds directly to the local daemon, so we don't really have anything to cache here. While we could
@@ -224,6 +242,7 @@ public class JibActions {
             RegularFile imageArchive,
             RegularFile imageId,
             RegularFile createdAtFile,
+            Instant createdAt,
             List<ContainerImageBuildInstruction> instructions
     ) {
         try {
@@ -254,7 +273,6 @@ public class JibActions {
                     instructions
             );
 
-            Instant createdAt = Instant.now();
             jibBuilder.setCreationTime(createdAt);
 
             final JibContainer container;
@@ -0,0 +1,150 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.dockercomponent;
+
+import co.elastic.gradle.utils.Architecture;
+import co.elastic.gradle.utils.ProcessRunner;
+import co.elastic.gradle.utils.RetryUtils;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Build wide service that publishes the manifest lists of all projects.
+ * <p>
+ * Each {@link PushManifestListTask} calls the service from a work item of the worker API, so the manifest lists of all
+ * projects can be pushed concurrently, independent of the project they belong to. The work item waits for its push,
+ * as the digest file is the output of the task. The service limits the number of concurrent pushes so a large release
+ * doesn't overwhelm the registry. Waiting between retries doesn't count towards the limit. The service shares a
+ * circuit breaker per registry and a retry budget so that pushes back off together when the registry starts failing
+ * rather than each of them retrying on its own.
+ */
+public abstract class ManifestListPublicationService implements BuildService<ManifestListPublicationService.Params> {
+
+    public static final String NAME = "manifestListPublication";
+
+    private static final Logger logger = Logging.getLogger(ManifestListPublicationService.class);
+
+    public interface Params extends BuildServiceParameters {
+        Property<Integer> getMaxConcurrentPushes();
+
+        Property<ProcessRunner> getProcessRunner();
+    }
+
+    private final Semaphore pushes;
+    // When the registry is down retrying all pushes would only make it worse
+    private final RetryUtils.RetryBudget retryBudget = new RetryUtils.RetryBudget(0.2, 10);
+    private final Map<String, RetryUtils.CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    public ManifestListPublicationService() {
+        pushes = new Semaphore(getParameters().getMaxConcurrentPushes().get());
+    }
+
+    /**
+     * Push a manifest list and write its digest to the digest file as soon as the push completes.
+     */
+    public void publish(String executable, Map<Architecture, String> architectureTags, String template, String tag, Path digestFile) {
+        final String output = RetryUtils.retry(() -> {
+                    pushes.acquireUninterruptibly();
+                    try {
+                        return push(executable, architectureTags, template, tag);
+                    } finally {
+                        pushes.release();
+                    }
+                })
+                .maxAttempt(6)
+                .fullJitterBackoff(1000, 30000)
+                .circuitBreaker(circuitBreakers.computeIfAbsent(
+                        registry(tag), registry -> new RetryUtils.CircuitBreaker(5, 10000)
+                ))
+                .retryBudget(retryBudget)
+                .onRetryError(error -> logger.warn("Error while pushing manifest for {}. Retrying", tag, error))
+                .execute();
+
+        if (output.startsWith("Digest: sha256:")) {
+            try {
+                Files.writeString(digestFile, output.substring(8, 79));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            logger.lifecycle("Pushed manifest list to {}", tag);
+        } else {
+            if (output.isEmpty()) {
+                throw new GradleException("manifest-tool succeeded but generated no output. " +
+                                          "Check the task output for additional details.");
+            } else {
+                throw new GradleException("manifest-tool succeeded but generated unexpected output: `" + output +
+                        "`. Check the task output for additional details.");
+            }
+        }
+    }
+
+    private static String registry(String tag) {
+        // Like docker, the first component is only a registry if it looks like a host name, e.g. `elastic/app` is on
+        // Docker Hub
+        final int slash = tag.indexOf('/');
+        if (slash >= 0) {
+            final String first = tag.substring(0, slash);
+            if (first.contains(".") || first.contains(":") || first.equals("localhost")) {
+                return first;
+            }
+        }
+        return "docker.io";
+    }
+
+    private String push(String executable, Map<Architecture, String> architectureTags, String template, String tag) {
+        final StringBuilder output = new StringBuilder();
+        final ProcessRunner.Result result = getParameters().getProcessRunner().get().run(
+                ProcessRunner.command(
+                                executable,
+                                "push", "from-args",
+                                "--platforms",
+                                architectureTags.keySet().stream()
+                                        .map(each -> "linux/" + each.dockerName())
+                                        .collect(Collectors.joining(",")),
+                                "--template", template,
+                                "--target", tag
+                        )
+                        .environment(Map.of(
+                                "HOME", System.getProperty("user.home"),
+                                // required for docker-credential-desktop
+                                "PATH", "/usr/local/bin/"
+                        ))
+                        .stdout(ProcessRunner.OutputConsumer.lines(line -> output.append(line).append("\n")))
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+                        .ignoreExitValue()
+        );
+        if (result.exitValue() != 0) {
+            throw new GradleException("Creating the manifest list failed: " + output.toString().trim());
+        }
+        return output.toString().trim();
+    }
+}
@@ -21,7 +21,6 @@ package co.elastic.gradle.dockercomponent;
 import co.elastic.gradle.cli.manifest.ManifestToolExecTask;
 import co.elastic.gradle.utils.Architecture;
 import co.elastic.gradle.utils.RegularFileUtils;
-import co.elastic.gradle.utils.RetryUtils;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
@@ -32,17 +31,13 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.process.ExecOperations;
-import org.gradle.process.ExecResult;
-import org.jetbrains.annotations.NotNull;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.util.*;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 
@@ -73,11 +68,14 @@ abstract public class PushManifestListTask extends ManifestToolExecTask {
         return getDigestFile().map(regularFile -> RegularFileUtils.readString(regularFile).trim());
     }
 
+    @Internal
+    public abstract Property<ManifestListPublicationService> getPublicationService();
+
     @Inject
-    protected abstract ExecOperations getExecOperations();
+    protected abstract WorkerExecutor getWorkerExecutor();
 
     @TaskAction
-    public void pushManifestList() throws IOException {
+    public void pushManifestList() {
         final Set<String> templates = getArchitectureTags().get().values().stream()
                 .map(each -> {
                     String template = each;
@@ -94,63 +92,43 @@ abstract public class PushManifestListTask extends ManifestToolExecTask {
             throw new GradleException("Can't derive template from manifest list: " + templates);
         }
 
-        final Random random = new Random();
-        final String output = RetryUtils.retry(() -> pushManifestList(templates))
-                .maxAttempt(6)
-                .exponentialBackoff(random.nextInt(5) * 1000, 30000)
-                .onRetryError(error -> getLogger().warn("Error while pushing manifest. Retrying", error))
-                .execute();
-
-        if (output.startsWith("Digest: sha256:")) {
-            Files.writeString(
-                    RegularFileUtils.toPath(getDigestFile()),
-                    output.substring(8, 79)
-            );
-            getLogger().lifecycle("Pushed manifest list to {}", getTag().get());
-        } else {
-            if (output.isEmpty()) {
-                throw new GradleException("manifest-tool succeeded but generated no output. " +
-                                          "Check the task output for additional details.");
-            } else {
-                throw new GradleException("manifest-tool succeeded but generated unexpected output: `" + output +
-                        "`. Check the task output for additional details.");
-            }
-        }
+        // Submitted as async work so Gradle can go on with the manifest lists of other projects while this one is
+        // being pushed
+        getWorkerExecutor().noIsolation().submit(PublishManifestList.class, params -> {
+            params.getPublicationService().set(getPublicationService());
+            params.getExecutable().set(getExecutable());
+            params.getArchitectureTags().set(getArchitectureTags());
+            params.getTemplate().set(templates.iterator().next());
+            params.getTag().set(getTag());
+            params.getDigestFile().set(getDigestFile());
+        });
+    }
+
+    public interface PublishManifestListParameters extends WorkParameters {
+        Property<ManifestListPublicationService> getPublicationService();
+
+        Property<String> getExecutable();
+
+        MapProperty<Architecture, String> getArchitectureTags();
+
+        Property<String> getTemplate();
+
+        Property<String> getTag();
+
+        RegularFileProperty getDigestFile();
     }
 
-    @NotNull
-    private String pushManifestList(Set<String> templates) {
-        try {
-            final ExecResult result;
-            final String output;
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                result = getExecOperations().exec(spec -> {
-                    spec.setEnvironment(Map.of(
-                            "HOME", System.getProperty("user.home"),
-                            // required for docker-credential-desktop
-                            "PATH", "/usr/local/bin/"
-                    ));
-                    spec.setExecutable(getExecutable());
-                    spec.setArgs(Arrays.asList(
-                            "push", "from-args",
-                            "--platforms",
-                            getArchitectureTags().get().keySet().stream()
-                                    .map(each -> "linux/" + each.dockerName())
-                                    .collect(Collectors.joining(",")),
-                            "--template", templates.iterator().next(),
-                            "--target", getTag().get()
-                    ));
-                    spec.setStandardOutput(out);
-                    spec.setIgnoreExitValue(true);
-                });
-                output = out.toString(StandardCharsets.UTF_8).trim();
-            }
-            if (result.getExitValue() != 0) {
-                throw new GradleException("Creating the manifest list failed: " + output);
-            }
-            return output;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+    public abstract static class PublishManifestList implements WorkAction<PublishManifestListParameters> {
+        @Override
+        public void execute() {
+            final PublishManifestListParameters params = getParameters();
+            params.getPublicationService().get().publish(
+                    params.getExecutable().get(),
+                    params.getArchitectureTags().get(),
+                    params.getTemplate().get(),
+                    params.getTag().get(),
+                    RegularFileUtils.toPath(params.getDigestFile())
+            );
         }
     }
 
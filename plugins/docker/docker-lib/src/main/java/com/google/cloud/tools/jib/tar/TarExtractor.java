@@ -36,6 +36,6 @@ public class TarExtractor {
      * @throws IOException if extraction fails
      */
     public static void extract(Path source, Path destination) throws IOException {
-        ExtractCompressedTar.extract(source, destination);
+        ExtractCompressedTar.extractCached(source, destination);
     }
 }
@@ -14,6 +14,7 @@ dependencies {
     api(project(":libs:docker"))
     implementation(project(":libs:utils"))
     implementation(project(":plugins:lifecycle"))
+    implementation("com.fasterxml.jackson.core:jackson-databind:2.17.2")
 }
 
 tasks.integrationTest {
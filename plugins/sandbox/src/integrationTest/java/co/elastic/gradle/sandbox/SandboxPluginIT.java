@@ -25,6 +25,10 @@ import org.gradle.testkit.runner.TaskOutcome;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
 import java.util.Objects;
 
@@ -32,6 +36,8 @@ import static co.elastic.gradle.AssertContains.assertContains;
 import static co.elastic.gradle.AssertContains.assertDoesNotContain;
 import static co.elastic.gradle.AssertFiles.assertPathExists;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("NewClassNamingConvention")
 class SandboxPluginIT extends TestkitIntegrationTest {
@@ -331,6 +337,318 @@ class SandboxPluginIT extends TestkitIntegrationTest {
         assertEquals(Objects.requireNonNull(result.task(":subproject:dockerTask")).getOutcome(), TaskOutcome.UP_TO_DATE);
     }
 
+    @Test
+    void incrementalSandbox() throws IOException {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        echo Contents: $(< samples/file1 )
+                        ls samples/dir
+                        mkdir -p build/script_out
+                        cat samples/file1 > build/script_out/output_file
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                tasks.register<IncrementalSandboxExecTask>("test") {
+                    setCommandLine(listOf("./scripts/test.sh"))
+                    reads(file("scripts/test.sh"))
+                    reads(file("samples/file1"))
+                    reads(fileTree("samples/dir"))
+                    runsSystemBinary("mkdir", "cat", "ls")
+                    writes(file("build/script_out/output_file"))
+                }
+                """, IncrementalSandboxExecTask.class.getName()
+        ));
+
+        // Enough runs that the sandbox moves between paths of different depths
+        for (int run = 0; run < 8; run++) {
+            helper.writeFile("samples/file1", "Run " + run);
+            helper.writeFile("samples/dir/added-" + run, "added");
+            if (run > 0) {
+                helper.projectDir().resolve("samples/dir/added-" + (run - 1)).toFile().delete();
+            }
+
+            final BuildResult result = gradleRunner
+                    .withArguments("--warning-mode", "fail", "-s", "--info", "test")
+                    .build();
+
+            assertEquals(TaskOutcome.SUCCESS, Objects.requireNonNull(result.task(":test")).getOutcome());
+            assertContains(result.getOutput(), "Contents: Run " + run);
+            assertContains(result.getOutput(), "added-" + run);
+            if (run > 0) {
+                assertContains(result.getOutput(), "Updated sandbox for");
+                assertDoesNotContain(result.getOutput(), "added-" + (run - 1));
+            }
+            assertEquals(
+                    "Run " + run,
+                    Files.readString(helper.projectDir().resolve("build/script_out/output_file")).trim()
+            );
+        }
+    }
+
+    @Test
+    void outputsAreKeptUntilTheCommandSucceeds() throws IOException {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        mkdir -p build/script_out
+                        echo $1 > build/script_out/output_file
+                        exit $2
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                tasks.register<SandboxExecTask>("test") {
+                    setCommandLine(listOf(
+                        "./scripts/test.sh", project.property("content") as String, project.property("exitCode") as String
+                    ))
+                    reads(file("scripts/test.sh"))
+                    runsSystemBinary("mkdir")
+                    writes(file("build/script_out/output_file"))
+                }
+                """, SandboxExecTask.class.getName()
+        ));
+        final Path output = helper.projectDir().resolve("build/script_out/output_file");
+
+        gradleRunner.withArguments("--warning-mode", "fail", "-s", "-Pcontent=first", "-PexitCode=0", "test").build();
+        assertEquals("first", Files.readString(output).trim());
+
+        // A changed command line makes the run non-incremental, the outputs must survive the command failing
+        gradleRunner.withArguments("--warning-mode", "fail", "-s", "-Pcontent=second", "-PexitCode=1", "test")
+                .buildAndFail();
+        assertEquals("first", Files.readString(output).trim());
+
+        gradleRunner.withArguments("--warning-mode", "fail", "-s", "-Pcontent=third", "-PexitCode=0", "test").build();
+        assertEquals("third", Files.readString(output).trim());
+    }
+
+    @Test
+    void pooledDockerExec() {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        echo Running in pool: $1
+                        mkdir -p build/$1
+                        echo "pooled $1" > build/$1/output_file
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                listOf("test1", "test2").forEach { name ->
+                    tasks.register<SandboxDockerExecTask>(name) {
+                        image("ubuntu:20.04@sha256:8ae9bafbb64f63a50caab98fd3a5e37b3eb837a3e0780b78e5218e63193961f9")
+                        setCommandLine(listOf("./scripts/test.sh", name))
+                        reads(file("scripts/test.sh"))
+                        writes(file("build/$name/output_file"))
+                        pooled(true)
+                    }
+                }
+                """, SandboxDockerExecTask.class.getName()
+        ));
+
+        for (int run = 0; run < 2; run++) {
+            final BuildResult result = gradleRunner
+                    .withArguments("--warning-mode", "fail", "-s", "--info", "--rerun-tasks", "test1", "test2")
+                    .build();
+
+            assertContains(result.getOutput(), "Running in pool: test1");
+            assertContains(result.getOutput(), "Running in pool: test2");
+            assertContains(result.getOutput(), "Running docker command: [docker, exec");
+            assertPathExists(helper.projectDir().resolve("build/test1/output_file"));
+            assertPathExists(helper.projectDir().resolve("build/test2/output_file"));
+        }
+    }
+
+    @Test
+    void pooledDockerExecDoesNotLeakState() {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        if [ -e /tmp/leaked ] ; then
+                          echo "Found state of $(cat /tmp/leaked)"
+                          exit 1
+                        fi
+                        echo $1 > /tmp/leaked
+                        mkdir -p build/$1
+                        echo "pooled $1" > build/$1/output_file
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                listOf("test1", "test2").forEach { name ->
+                    tasks.register<SandboxDockerExecTask>(name) {
+                        image("ubuntu:20.04@sha256:8ae9bafbb64f63a50caab98fd3a5e37b3eb837a3e0780b78e5218e63193961f9")
+                        setCommandLine(listOf("./scripts/test.sh", name))
+                        reads(file("scripts/test.sh"))
+                        writes(file("build/$name/output_file"))
+                        pooled(true)
+                    }
+                }
+                tasks.named("test2") {
+                    mustRunAfter("test1")
+                }
+                """, SandboxDockerExecTask.class.getName()
+        ));
+
+        final BuildResult result = gradleRunner
+                .withArguments("--warning-mode", "fail", "-s", "--info", "test1", "test2")
+                .build();
+
+        assertContains(result.getOutput(), "since a command left state behind outside of the sandbox");
+        assertPathExists(helper.projectDir().resolve("build/test2/output_file"));
+    }
+
+    @Test
+    void resourceLimitsWithoutCgroup() {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        grep Cpus_allowed_list /proc/self/status
+                        sleep 1
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                tasks.register<SandboxExecTask>("test") {
+                    setCommandLine(listOf("./scripts/test.sh"))
+                    reads(file("scripts/test.sh"))
+                    runsSystemBinary("grep", "sleep")
+                    cpus(1)
+                    memoryMax("256m")
+                }
+                """, SandboxExecTask.class.getName()
+        ));
+
+        final BuildResult result = gradleRunner
+                .withArguments("-s", "--info", "-Pco.elastic.sandbox.cpus=1", "test")
+                .build();
+
+        assertContains(result.getOutput(), "The memory and IO limits of :test are not enforced");
+        assertContains(result.getOutput(), "Running on CPUs ");
+        // Pinned to a single CPU with taskset
+        assertTrue(
+                result.getOutput().lines().anyMatch(line -> line.matches("Cpus_allowed_list:\\s+\\d+")),
+                "Expected the command to be pinned to a single CPU"
+        );
+        // Sampled from /proc without a cgroup
+        assertContains(result.getOutput(), "Command used ");
+    }
+
+    @Test
+    void executionReports() throws IOException {
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                tasks.register<SandboxExecTask>("test") {
+                    setWorkingDir("samples")
+                    setCommandLine(listOf("../scripts/test.sh", "arg1", "arg2"))
+                    reads(file("scripts/test.sh"))
+                    runsSystemBinary("mkdir", "env", "sed", "find")
+                    reads(file("samples/file1"))
+                    reads(fileTree("samples/dir"))
+                    writes(file("build/script_out/output_file"))
+                    writes(fileTree("build/script_out_dir"))
+                }
+                """, SandboxExecTask.class.getName()
+        ));
+
+        gradleRunner
+                .withArguments("--warning-mode", "fail", "-s", "test")
+                .build();
+
+        final String report = Files.readString(helper.projectDir().resolve("build/sandbox/test.report.json"));
+        assertContains(report, "\"task\" : \":test\"");
+        assertContains(report, "\"tries\"");
+        assertContains(report, "\"exitValue\" : 0");
+        assertContains(report, "\"inputs\"");
+        final String summary = Files.readString(helper.projectDir().resolve("build/reports/sandbox/summary.json"));
+        assertContains(summary, "\"tasks\" : 1");
+        assertContains(summary, "\"retriedTasks\" : 0");
+    }
+
+    @Test
+    void unchangedOutputsAreKept() throws IOException {
+        helper.writeScript(
+                "scripts/test.sh",
+                """
+                        #!/bin/bash
+                        mkdir -p build/script_out
+                        cat samples/file1 > build/script_out/output_file
+                        """
+        );
+        helper.buildScript(String.format("""
+                import %s
+                plugins {
+                    id("co.elastic.sandbox")
+                }
+                tasks.register<SandboxExecTask>("test") {
+                    setCommandLine(listOf("./scripts/test.sh"))
+                    reads(file("scripts/test.sh"))
+                    reads(file("samples/file1"))
+                    reads(fileTree("samples/dir"))
+                    runsSystemBinary("mkdir", "cat")
+                    writes(file("build/script_out/output_file"))
+                    environment("UNUSED", project.findProperty("unused")?.toString() ?: "")
+                }
+                """, SandboxExecTask.class.getName()
+        ));
+        final Path output = helper.projectDir().resolve("build/script_out/output_file");
+        final Path outputOfTry = helper.projectDir()
+                .resolve("build/sandbox/test/outputs/try-1/build/script_out/output_file");
+
+        gradleRunner.withArguments("--warning-mode", "fail", "-s", "test").build();
+        final Object firstKey = Files.readAttributes(output, BasicFileAttributes.class).fileKey();
+        assertTrue(Files.exists(outputOfTry));
+
+        // Changes an input that doesn't affect the output
+        helper.writeFile("samples/dir/file2", "Changed file2");
+        final BuildResult unchanged = gradleRunner
+                .withArguments("--warning-mode", "fail", "-s", "--info", "test")
+                .build();
+        assertEquals(TaskOutcome.SUCCESS, Objects.requireNonNull(unchanged.task(":test")).getOutcome());
+        assertContains(unchanged.getOutput(), "0 of 1 outputs changed");
+        assertEquals(firstKey, Files.readAttributes(output, BasicFileAttributes.class).fileKey());
+        assertFalse(Files.exists(outputOfTry));
+
+        // Changes the environment, which is not an input file, but doesn't affect the output either
+        final BuildResult changedEnvironment = gradleRunner
+                .withArguments("--warning-mode", "fail", "-s", "--info", "-Punused=changed", "test")
+                .build();
+        assertEquals(TaskOutcome.SUCCESS, Objects.requireNonNull(changedEnvironment.task(":test")).getOutcome());
+        assertContains(changedEnvironment.getOutput(), "0 of 1 outputs changed");
+        assertEquals(firstKey, Files.readAttributes(output, BasicFileAttributes.class).fileKey());
+
+        helper.writeFile("samples/file1", "Changed file1");
+        final BuildResult changed = gradleRunner
+                .withArguments("--warning-mode", "fail", "-s", "--info", "-Punused=changed", "test")
+                .build();
+        assertContains(changed.getOutput(), "1 of 1 outputs changed");
+        assertEquals("Changed file1", Files.readString(output).trim());
+    }
+
     @Test
     void retriesSandbox() {
         helper.writeScript(
@@ -21,17 +21,32 @@ package co.elastic.gradle.sandbox;
 import co.elastic.gradle.utils.RegularFileUtils;
 import co.elastic.gradle.utils.docker.DockerUtils;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecOperations;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public abstract class DockerImagePull extends DefaultTask {
 
@@ -39,11 +54,18 @@ public abstract class DockerImagePull extends DefaultTask {
         getMarkerFile().convention(
             getProjectLayout().getBuildDirectory().file("sandbox/" + getName() + ".marker")
         );
+        getMaxParallelPulls().convention(4);
     }
 
     @Input
     abstract ListProperty<String> getTags();
 
+    /**
+     * The number of images pulled at the same time.
+     */
+    @Internal
+    public abstract Property<Integer> getMaxParallelPulls();
+
     @Inject
     protected abstract ExecOperations getExecOperations();
 
@@ -56,14 +78,72 @@ public abstract class DockerImagePull extends DefaultTask {
     @TaskAction
     public void pullImages() throws IOException {
         final DockerUtils dockerUtils = new DockerUtils(getExecOperations());
-        getTags().get().forEach(tag -> {
-            getLogger().lifecycle("Pulling docker image: {}", tag);
-            dockerUtils.pull(tag);
-        });
+        final Map<String, String> results = new ConcurrentHashMap<>();
+        // Images from the same repository are the most likely to share layers, so these are pulled one after the
+        // other, letting the later ones reuse the layers of the first. Different repositories are pulled in parallel.
+        final Map<String, List<String>> byRepository = getTags().get().stream()
+                .distinct()
+                .collect(Collectors.groupingBy(DockerImagePull::repository, LinkedHashMap::new, Collectors.toList()));
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(getMaxParallelPulls().get(), byRepository.size()))
+        );
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            byRepository.values().forEach(tags -> futures.add(executor.submit(() -> tags.forEach(tag -> {
+                if (isPresent(dockerUtils, tag)) {
+                    getLogger().info("Docker image {} is already present", tag);
+                    results.put(tag, "already present");
+                    return;
+                }
+                getLogger().lifecycle("Pulling docker image: {}", tag);
+                final long start = System.nanoTime();
+                dockerUtils.pull(tag);
+                results.put(tag, "pulled in " + Duration.ofNanos(System.nanoTime() - start));
+            }))));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while pulling docker images", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new GradleException("Failed to pull docker images", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
         Files.writeString(
                 RegularFileUtils.toPath(getMarkerFile()),
-                "Pulled the following tags:\n" + String.join("\n", getTags().get())
+                "Pulled the following tags:\n" + getTags().get().stream()
+                        .distinct()
+                        .map(tag -> tag + " " + results.get(tag))
+                        .collect(Collectors.joining("\n"))
         );
     }
 
+    /**
+     * Only images referenced by digest can be skipped, any other tag might have been updated since it was pulled.
+     */
+    private static boolean isPresent(DockerUtils dockerUtils, String tag) {
+        if (!tag.contains("@sha256:")) {
+            return false;
+        }
+        return dockerUtils.exec(spec -> {
+            spec.commandLine("docker", "image", "inspect", "--format", "{{.Id}}", tag);
+            spec.setStandardOutput(OutputStream.nullOutputStream());
+            spec.setErrorOutput(OutputStream.nullOutputStream());
+            spec.setIgnoreExitValue(true);
+        }).getExitValue() == 0;
+    }
+
+    private static String repository(String tag) {
+        final int digest = tag.indexOf('@');
+        final String name = digest < 0 ? tag : tag.substring(0, digest);
+        // A colon after the last slash separates the tag, one before it the registry port
+        final int colon = name.lastIndexOf(':');
+        return colon > name.lastIndexOf('/') ? name.substring(0, colon) : name;
+    }
+
 }
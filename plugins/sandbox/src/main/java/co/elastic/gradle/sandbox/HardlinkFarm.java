@@ -0,0 +1,142 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the links to create and creates all of them at once.
+ * The set of directories is known upfront, so these are created once, in order, and the links themselves are created
+ * in parallel without having to check the parent first.
+ */
+class HardlinkFarm {
+
+    // Link creation is bound by file system metadata operations, past a point more threads only add contention
+    private static final int MAX_PARALLELISM = 16;
+
+    private final Set<Path> directories = new HashSet<>();
+    private final List<Link> links = new ArrayList<>();
+
+    private record Link(Path source, Path destination) {
+    }
+
+    public record Stats(long files, long directories, long bytes, Duration duration) {
+    }
+
+    public void directory(Path destination) {
+        directories.add(destination);
+    }
+
+    public void link(Path source, Path destination) {
+        directories.add(destination.getParent());
+        links.add(new Link(source, destination));
+    }
+
+    public boolean isEmpty() {
+        return links.isEmpty() && directories.isEmpty();
+    }
+
+    public Stats build(Logger logger, String description) {
+        final long start = System.nanoTime();
+        final LongAdder bytes = new LongAdder();
+        directories.stream()
+                .sorted(Comparator.comparingInt(Path::getNameCount))
+                .forEach(directory -> {
+                    try {
+                        Files.createDirectories(directory);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Can't create directory " + directory, e);
+                    }
+                });
+
+        final ForkJoinPool pool = new ForkJoinPool(
+                Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors())
+        );
+        try {
+            pool.submit(() -> links.parallelStream().forEach(link -> bytes.add(create(link)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while linking " + description, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to link " + description, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        final Stats stats = new Stats(links.size(), directories.size(), bytes.sum(), duration);
+        logger.info(
+                "Linked {} files of {} MiB and {} directories {} in {} ms ({} links/s)",
+                links.size(), bytes.sum() / (1024 * 1024), directories.size(), description, duration.toMillis(),
+                links.size() * 1000L / Math.max(1, duration.toMillis())
+        );
+        links.clear();
+        directories.clear();
+        return stats;
+    }
+
+    /**
+     * @return the size of the linked file
+     */
+    private static long create(Link link) {
+        try {
+            if (Files.isSymbolicLink(link.source())) {
+                // A relative symbolic link needs to be kept as it can be relied on for behavior,
+                // e.g. `require` in some versions of node seems to care.
+                // since we keep the directory structure these should continue to work
+                Files.copy(link.source(), link.destination(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+                return 0;
+            }
+            try {
+                Files.createLink(link.destination(), link.source());
+            } catch (FileAlreadyExistsException e) {
+                // Only pay for the extra checks when the destination is actually there
+                Files.delete(link.destination());
+                Files.createLink(link.destination(), link.source());
+            }
+            return Files.size(link.destination());
+        } catch (IOException e) {
+            // Note does not work for network drives, e.g. Vagrant
+            throw new UncheckedIOException(
+                    "Failed to create hard link " + link.destination() + " pointing to " + link.source(),
+                    e
+            );
+        }
+    }
+}
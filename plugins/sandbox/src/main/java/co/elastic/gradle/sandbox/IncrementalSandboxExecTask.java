@@ -0,0 +1,47 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.InputChanges;
+
+import java.io.IOException;
+
+/**
+ * A {@link SandboxExecTask} that keeps the sandbox of the previous run and only updates the inputs that changed
+ * instead of re-creating it.
+ * <p>
+ * Files the command creates in the sandbox, other than the outputs, are kept between runs too, so this should only be
+ * used for commands that don't depend on these. Gradle deletes all outputs of the task before running it whenever it
+ * can't run incrementally, e.g. on the first run or when the command line changed.
+ */
+@CacheableTask
+abstract public class IncrementalSandboxExecTask extends SandboxExecTask {
+
+    @Override
+    public void taskAction() {
+        // Replaced by the incremental action below
+    }
+
+    @TaskAction
+    public void incrementalTaskAction(InputChanges inputChanges) throws IOException {
+        run(inputChanges);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed store of the outputs a sandbox task placed in the project.
+ * <p>
+ * A deterministic command produces the same outputs on every run. Replacing them with the new links anyway would give
+ * them new last modified times, and Gradle and the tasks depending on them would have to hash them again. Instead,
+ * outputs whose contents didn't change are left untouched.
+ * <p>
+ * Each output is hard linked into the store under the hash of its contents, so an output is known to be unchanged
+ * when it's still the same file as the store entry for the hash of the new output, and only the new output has to be
+ * read. Store entries are validated by size and last modified time, as these are shared with the outputs linked to
+ * them and change when one of those is written to. Entries no output links to any more are removed on save.
+ */
+class OutputStore {
+
+    private static final String INDEX = "index";
+
+    private record Entry(long size, long lastModified) {
+    }
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private OutputStore(Path directory) {
+        this.directory = directory;
+    }
+
+    static OutputStore open(Path directory) {
+        final OutputStore store = new OutputStore(directory);
+        try {
+            // Older versions kept a file with hashes here
+            if (Files.isRegularFile(directory)) {
+                Files.delete(directory);
+            }
+            Files.createDirectories(directory);
+            final Path index = directory.resolve(INDEX);
+            if (Files.exists(index)) {
+                try (Stream<String> lines = Files.lines(index)) {
+                    lines.forEach(line -> {
+                        final String[] parts = line.split(" ", 3);
+                        if (parts.length == 3) {
+                            store.entries.put(parts[2], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+                        }
+                    });
+                } catch (NumberFormatException e) {
+                    // Entries that aren't in the index are not trusted, so these are replaced as outputs are compared
+                    store.entries.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open output store " + directory, e);
+        }
+        return store;
+    }
+
+    /**
+     * Compares an output in the sandbox with the destination it would be linked to, and adds the ones that were read
+     * to the store.
+     *
+     * @return true if the destination already has the same contents as the source, so it doesn't need to be replaced
+     */
+    boolean isUnchanged(Path source, Path destination) {
+        try {
+            final BasicFileAttributes destinationAttributes;
+            try {
+                destinationAttributes = Files.readAttributes(
+                        destination, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+                );
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            final BasicFileAttributes sourceAttributes = Files.readAttributes(
+                    source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+            );
+            if (!sourceAttributes.isRegularFile() || !destinationAttributes.isRegularFile() ||
+                sourceAttributes.size() != destinationAttributes.size()
+            ) {
+                return false;
+            }
+            if (Files.isSameFile(source, destination)) {
+                return true;
+            }
+            final String hash = hash(source);
+            final Path stored = getValidEntry(hash);
+            if (stored != null && Files.isSameFile(stored, destination)) {
+                return true;
+            }
+            // The destination wasn't collected into the store yet, e.g. because it was copied instead of linked
+            if (hash(destination).equals(hash)) {
+                put(hash, destination);
+                return true;
+            }
+            // The source is linked to the destination next, so it's going to be the file the entry refers to
+            put(hash, source);
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compare " + source + " to " + destination, e);
+        }
+    }
+
+    void save() {
+        try (Stream<Path> stored = Files.list(directory)) {
+            stored.filter(path -> !path.getFileName().toString().equals(INDEX))
+                    .filter(path -> !entries.containsKey(path.getFileName().toString()) || isUnreferenced(path))
+                    .forEach(path -> {
+                        entries.remove(path.getFileName().toString());
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Failed to remove " + path + " from the output store", e);
+                        }
+                    });
+            Files.writeString(directory.resolve(INDEX), entries.entrySet().stream()
+                    .map(entry -> entry.getValue().size() + " " + entry.getValue().lastModified() + " " +
+                                  entry.getKey())
+                    .collect(Collectors.joining("\n")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + directory, e);
+        }
+    }
+
+    private Path getValidEntry(String hash) throws IOException {
+        final Path stored = directory.resolve(hash);
+        final Entry entry = entries.get(hash);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(
+                    stored, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+            );
+            if (attributes.size() == entry.size() && attributes.lastModifiedTime().toMillis() == entry.lastModified()) {
+                return stored;
+            }
+        } catch (NoSuchFileException e) {
+            // Removed from the store by hand
+        }
+        entries.remove(hash);
+        return null;
+    }
+
+    private void put(String hash, Path file) throws IOException {
+        final Path stored = directory.resolve(hash);
+        Files.deleteIfExists(stored);
+        try {
+            Files.createLink(stored, file);
+        } catch (FileAlreadyExistsException e) {
+            // Another output with the same contents was stored concurrently, either one will do
+            return;
+        } catch (UnsupportedOperationException | IOException e) {
+            // e.x. the destination is on a different file system than the build directory, it will be hashed again
+            return;
+        }
+        final BasicFileAttributes attributes = Files.readAttributes(stored, BasicFileAttributes.class);
+        entries.put(hash, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis()));
+    }
+
+    private static boolean isUnreferenced(Path stored) {
+        try {
+            return ((Number) Files.getAttribute(stored, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue() <= 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Can't tell, so keep it
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String hash(Path path) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
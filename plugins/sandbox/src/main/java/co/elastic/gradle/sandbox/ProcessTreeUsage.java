@@ -0,0 +1,154 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Samples the CPU time and memory used by a command and the processes it starts from `/proc`, for commands that don't
+ * run in a cgroup that accounts for these.
+ * <p>
+ * The command is wrapped so it writes its pid to a file before it's started. Processes that exit between samples are
+ * only accounted for by the CPU time of the parent that waited for them, and the last interval before the command exits
+ * is missed, so the usage is approximate.
+ */
+class ProcessTreeUsage implements AutoCloseable {
+
+    // The kernel reports times in `/proc/<pid>/stat` in USER_HZ, which is 100 on Linux
+    private static final long TICKS_PER_SECOND = 100;
+    private static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+    private final Path pidFile;
+    private final ScheduledExecutorService sampler;
+    private long pid = -1;
+    private long cpuTicks = 0;
+    private long peakMemoryBytes = 0;
+
+    ProcessTreeUsage(Path pidFile) {
+        this.pidFile = pidFile;
+        try {
+            Files.deleteIfExists(pidFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to delete " + pidFile, e);
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "sandbox-usage-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean isSupported() {
+        return Files.isDirectory(Paths.get("/proc/self"));
+    }
+
+    /**
+     * Wraps the command line so the pid of the command is written to the pid file before it's started.
+     */
+    List<String> wrap(Path shell, List<String> commandLine) {
+        final List<String> result = new ArrayList<>(List.of(
+                shell.toString(), "-c", "echo $$ > \"$1\"\nshift\nexec \"$@\"\n", "sandbox", pidFile.toString()
+        ));
+        result.addAll(commandLine);
+        return result;
+    }
+
+    private synchronized void sample() {
+        if (pid < 0) {
+            try {
+                final String content = Files.exists(pidFile) ? Files.readString(pidFile).trim() : "";
+                if (content.isEmpty()) {
+                    return;
+                }
+                pid = Long.parseLong(content);
+            } catch (IOException | NumberFormatException e) {
+                // The pid is still being written
+                return;
+            }
+        }
+        final Optional<ProcessHandle> root = ProcessHandle.of(pid);
+        if (root.isEmpty()) {
+            return;
+        }
+        long ticks = 0;
+        long memoryBytes = 0;
+        final List<ProcessHandle> processes = Stream.concat(root.stream(), root.get().descendants()).toList();
+        for (ProcessHandle process : processes) {
+            try {
+                final String stat = Files.readString(Paths.get("/proc", String.valueOf(process.pid()), "stat"));
+                // The command name can contain spaces, fields are counted from the state after it
+                final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                // utime, stime, cutime and cstime, the latter include children that were waited for
+                for (int field = 11; field <= 14; field++) {
+                    ticks += Long.parseLong(fields[field]);
+                }
+                memoryBytes += readStatusKb(process.pid(), "VmRSS:") * 1024;
+                peakMemoryBytes = Math.max(peakMemoryBytes, readStatusKb(process.pid(), "VmHWM:") * 1024);
+            } catch (IOException | RuntimeException e) {
+                // The process exited since it was listed
+            }
+        }
+        cpuTicks = Math.max(cpuTicks, ticks);
+        peakMemoryBytes = Math.max(peakMemoryBytes, memoryBytes);
+    }
+
+    private static long readStatusKb(long pid, String key) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+            return lines
+                    .filter(line -> line.startsWith(key))
+                    .mapToLong(line -> Long.parseLong(line.substring(key.length()).replace("kB", "").trim()))
+                    .findFirst()
+                    .orElse(0);
+        }
+    }
+
+    /**
+     * The usage sampled so far, or null if the command exited before it could be sampled.
+     */
+    synchronized SandboxExecBaseTask.ResourceUsage getUsage() {
+        if (pid < 0) {
+            return null;
+        }
+        return new SandboxExecBaseTask.ResourceUsage(
+                Duration.ofMillis(cpuTicks * 1000 / TICKS_PER_SECOND), peakMemoryBytes
+        );
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        try {
+            Files.deleteIfExists(pidFile);
+        } catch (IOException e) {
+            // Overwritten by the next command
+        }
+    }
+}
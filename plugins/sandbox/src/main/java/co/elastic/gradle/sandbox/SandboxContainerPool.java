@@ -0,0 +1,293 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import co.elastic.gradle.utils.ProcessRunner;
+import co.elastic.gradle.utils.docker.DockerUtils;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build wide pool of long-lived containers that pooled {@link SandboxDockerExecTask}s run their commands in.
+ * <p>
+ * Starting a container for every command adds up when running many short commands against the same image, so
+ * containers are kept running per image, platform and user, and commands are started in them with `docker exec`.
+ * Since mounts can't be added to a running container, each container mounts its own slot directory as `/sandbox`.
+ * For the duration of a command the contents of the sandbox are moved into the slot, and back out when it completes,
+ * which only renames the top level entries. A container is only handed out to one task at a time.
+ * <p>
+ * Commands could leave state behind outside of `/sandbox`, e.x. in `/tmp`, the home directory or in processes that
+ * keep running, that the next command would see. To keep commands isolated from each other, the file system changes
+ * (`docker diff`) and processes (`docker top`) of a container are recorded when it's started, and the container is
+ * only reused if these are still the same after a command. It's also discarded after a command failed or after a
+ * number of uses.
+ */
+public abstract class SandboxContainerPool implements BuildService<SandboxContainerPool.Params>, AutoCloseable {
+
+    public static final String NAME = "sandboxContainerPool";
+
+    private static final Logger logger = Logging.getLogger(SandboxContainerPool.class);
+
+    public interface Params extends BuildServiceParameters {
+        DirectoryProperty getSlotsDirectory();
+
+        Property<Integer> getMaxUsesPerContainer();
+
+        Property<ProcessRunner> getProcessRunner();
+    }
+
+    public static Provider<SandboxContainerPool> register(Gradle gradle, File slotsDirectory) {
+        return gradle.getSharedServices().registerIfAbsent(
+                NAME,
+                SandboxContainerPool.class,
+                spec -> {
+                    spec.getParameters().getSlotsDirectory().set(slotsDirectory);
+                    spec.getParameters().getMaxUsesPerContainer().convention(20);
+                    spec.getParameters().getProcessRunner().set(ProcessRunner.register(gradle));
+                }
+        );
+    }
+
+    private record Key(String image, String platform, String user) {
+    }
+
+    private final Map<Key, Deque<Container>> idle = new ConcurrentHashMap<>();
+    private final List<Container> all = new ArrayList<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * A container leased to a single command. Closing the lease returns the container to the pool unless it was
+     * discarded.
+     */
+    public class Container implements AutoCloseable {
+        private final Key key;
+        private final String id;
+        private final Path slot;
+        private final List<String> initialState;
+        private int uses = 0;
+        private boolean discarded = false;
+
+        private Container(Key key, String id, Path slot) {
+            this.key = key;
+            this.id = id;
+            this.slot = slot;
+            this.initialState = state(id);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Makes the contents of the sandbox available as `/sandbox` in the container.
+         */
+        public void moveIn(Path sandbox) {
+            moveContents(sandbox, slot);
+        }
+
+        /**
+         * Moves the contents back to the sandbox, including anything the command created.
+         */
+        public void moveOut(Path sandbox) {
+            moveContents(slot, sandbox);
+        }
+
+        /**
+         * Don't reuse this container, e.x. because a command failed in it and might have left it in a bad state.
+         */
+        public void discard() {
+            discarded = true;
+        }
+
+        @Override
+        public void close() {
+            uses++;
+            if (discarded || uses >= getParameters().getMaxUsesPerContainer().get() || !isEmpty(slot)) {
+                remove(this);
+            } else if (!state(id).equals(initialState)) {
+                logger.info("Not reusing container {} since a command left state behind outside of the sandbox", id);
+                remove(this);
+            } else {
+                idle.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).push(this);
+            }
+        }
+    }
+
+    public Container lease(String image, String platform, String user) {
+        final Key key = new Key(image, platform, user);
+        final Container container = idle.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).poll();
+        if (container != null) {
+            reused.incrementAndGet();
+            return container;
+        }
+        return start(key);
+    }
+
+    /**
+     * Changes the resource limits of a running container, e.x. `--cpus` or `--memory`.
+     */
+    public void update(Container container, List<String> limits) {
+        final List<String> command = new ArrayList<>(List.of("docker", "update"));
+        command.addAll(limits);
+        command.add(container.getId());
+        getParameters().getProcessRunner().get().run(
+                ProcessRunner.command(command)
+                        .environment(DockerUtils.environment())
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+        );
+    }
+
+    private Container start(Key key) {
+        final Path slot = getParameters().getSlotsDirectory().get().getAsFile().toPath()
+                .resolve("slot-" + nextSlot.incrementAndGet());
+        try {
+            Files.createDirectories(slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create container slot " + slot, e);
+        }
+        final StringBuilder output = new StringBuilder();
+        // The container only needs to stay around, commands are started with exec. `--init` reaps processes these
+        // leave behind.
+        getParameters().getProcessRunner().get().run(
+                ProcessRunner.command(
+                                "docker", "run", "-d", "--rm", "--init", "--platform", key.platform(),
+                                "--user", key.user(), "-v", slot + ":/sandbox/",
+                                "--entrypoint", "sleep", key.image(), "infinity"
+                        )
+                        .environment(DockerUtils.environment())
+                        .stdout(ProcessRunner.OutputConsumer.lines(output::append))
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+        );
+        final Container container = new Container(key, output.toString().trim(), slot);
+        synchronized (all) {
+            all.add(container);
+        }
+        started.incrementAndGet();
+        logger.info("Started container {} for {} to run sandboxed commands in", container.getId(), key.image());
+        return container;
+    }
+
+    /**
+     * Captures what a command could leave behind in the container: changes to its file system, which excludes the
+     * mounted sandbox, and the processes that are running.
+     */
+    private List<String> state(String id) {
+        final List<String> state = new ArrayList<>();
+        getParameters().getProcessRunner().get().run(
+                ProcessRunner.command("docker", "diff", id)
+                        .environment(DockerUtils.environment())
+                        .stdout(ProcessRunner.OutputConsumer.lines(state::add))
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+        );
+        getParameters().getProcessRunner().get().run(
+                ProcessRunner.command("docker", "top", id, "-o", "pid")
+                        .environment(DockerUtils.environment())
+                        .stdout(ProcessRunner.OutputConsumer.lines(state::add))
+                        .stderr(ProcessRunner.OutputConsumer.to(System.err))
+        );
+        state.sort(null);
+        return state;
+    }
+
+    private void remove(Container container) {
+        synchronized (all) {
+            all.remove(container);
+        }
+        getParameters().getProcessRunner().get().run(
+                ProcessRunner.command("docker", "rm", "-f", container.getId())
+                        .environment(DockerUtils.environment())
+                        .ignoreExitValue()
+        );
+        try {
+            deleteRecursively(container.slot);
+        } catch (IOException e) {
+            logger.warn("Failed to clean up container slot {}", container.slot, e);
+        }
+    }
+
+    private static void moveContents(Path from, Path to) {
+        try (Stream<Path> entries = Files.list(from)) {
+            for (Path entry : entries.collect(Collectors.toList())) {
+                Files.move(entry, to.resolve(entry.getFileName()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Failed to move sandbox from " + from + " to " + to + ", these need to be on the same file system",
+                    e
+            );
+        }
+    }
+
+    private static boolean isEmpty(Path dir) {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.findAny().isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path each : walk.sorted((a, b) -> b.getNameCount() - a.getNameCount()).collect(Collectors.toList())) {
+                Files.delete(each);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        final List<Container> containers;
+        synchronized (all) {
+            containers = new ArrayList<>(all);
+        }
+        containers.forEach(this::remove);
+        if (started.get() > 0) {
+            logger.info(
+                    "Started {} sandbox containers and reused them {} times",
+                    started.get(), reused.get()
+            );
+        }
+    }
+}
@@ -37,6 +37,8 @@ import java.util.stream.Stream;
 @CacheableTask
 abstract public class SandboxDockerExecTask extends SandboxExecBaseTask {
 
+    private boolean pooled = false;
+
     public SandboxDockerExecTask() {
        super();
        getNeedsPull().convention(false);
@@ -60,8 +62,33 @@ abstract public class SandboxDockerExecTask extends SandboxExecBaseTask {
         return String.format("%d:%d", uid, gid);
     }
 
+    /**
+     * Run the command in a container that is kept running and shared with other pooled tasks using the same image,
+     * rather than starting a new one.
+     */
+    public void pooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    @Internal
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    @Internal
+    public abstract Property<SandboxContainerPool> getContainerPool();
+
+    @Override
+    protected boolean canMount() {
+        // Mounts can't be added to a container that is already running
+        return !pooled;
+    }
+
     @Override
     protected ExecResult doExec() {
+        if (pooled) {
+            return doExecPooled();
+        }
         return new DockerUtils(getExecOperations()).exec(spec -> {
             // bind mount the sandbox to /sandbox and set the working dir within
             // We need to pass --platform explicitly here to make sure hat Docker Desktop on the M1 does not start
@@ -71,6 +98,11 @@ abstract public class SandboxDockerExecTask extends SandboxExecBaseTask {
                     "--rm", "-w", "/sandbox/" + sandbox.relativize(workingDirectory),
                     "-v", sandbox + ":/sandbox/", "--user", getUserString()
             ));
+            dockerCmdLine.addAll(resourceLimitFlags());
+            mounts.forEach((mountPoint, source) -> {
+                dockerCmdLine.add("-v");
+                dockerCmdLine.add(source + ":/sandbox/" + sandbox.relativize(mountPoint) + ":ro");
+            });
             // Pass the environment to the docker process and only add their names to the CLI
             environment.keySet().stream()
                     .flatMap(each -> Stream.of("-e", each))
@@ -84,6 +116,70 @@ abstract public class SandboxDockerExecTask extends SandboxExecBaseTask {
         });
     }
 
+    /**
+     * Maps the resource limits of the task to docker flags
+     */
+    private List<String> resourceLimitFlags() {
+        final List<String> flags = new ArrayList<>();
+        if (allocation != null && cpus > 0) {
+            flags.addAll(List.of("--cpus", String.valueOf(allocation.getCpus().size())));
+            flags.addAll(List.of("--cpuset-cpus", allocation.getCpuList()));
+        }
+        if (memoryMax > 0) {
+            // Without setting swap too, the container could use as much swap again
+            flags.addAll(List.of("--memory", String.valueOf(memoryMax), "--memory-swap", String.valueOf(memoryMax)));
+        }
+        if (ioWeight > 0) {
+            // Docker uses a range of 10 to 1000 instead of 1 to 10000
+            flags.addAll(List.of("--blkio-weight", String.valueOf(Math.max(10, Math.min(1000, ioWeight / 10)))));
+        }
+        return flags;
+    }
+
+    private ExecResult doExecPooled() {
+        try (SandboxContainerPool.Container container = getContainerPool().get().lease(
+                getImage().get(), "linux/" + Architecture.current().dockerName(), getUserString()
+        )) {
+            final ExecResult result;
+            try {
+                final List<String> limits = resourceLimitFlags();
+                if (!limits.isEmpty()) {
+                    // The container is shared, so its limits are updated to the ones of the task using it. These
+                    // can't all be reset afterwards, so it's not reused.
+                    getContainerPool().get().update(container, limits);
+                    container.discard();
+                }
+                container.moveIn(sandbox);
+                try {
+                    result = new DockerUtils(getExecOperations()).exec(spec -> {
+                        List<String> dockerCmdLine = new ArrayList<>(Arrays.asList(
+                                "docker", "exec", "-w", "/sandbox/" + sandbox.relativize(workingDirectory)
+                        ));
+                        // Pass the environment to the docker process and only add their names to the CLI
+                        environment.keySet().stream()
+                                .flatMap(each -> Stream.of("-e", each))
+                                .collect(Collectors.toCollection(() -> dockerCmdLine));
+                        spec.setEnvironment(environment);
+                        dockerCmdLine.add(container.getId());
+                        dockerCmdLine.addAll(commandLine);
+                        getLogger().info("Running docker command: {}", dockerCmdLine);
+                        spec.setCommandLine(dockerCmdLine);
+                        spec.setIgnoreExitValue(true);
+                    });
+                } finally {
+                    container.moveOut(sandbox);
+                }
+            } catch (RuntimeException e) {
+                container.discard();
+                throw e;
+            }
+            if (result.getExitValue() != 0) {
+                container.discard();
+            }
+            return result;
+        }
+    }
+
 
     @SuppressWarnings("unused")
     public void image(String image) {
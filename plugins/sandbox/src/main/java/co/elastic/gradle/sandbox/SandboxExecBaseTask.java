@@ -25,23 +25,32 @@ import org.gradle.api.GradleException;
 import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
 import org.gradle.api.internal.file.FileOperations;
 import org.gradle.api.internal.file.UnionFileCollection;
 import org.gradle.api.internal.provider.PropertyFactory;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.tasks.*;
 import org.gradle.process.ExecOperations;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.gradle.process.ExecResult;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -69,15 +78,34 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
     protected final Path currentProjectPath;
     protected FileCollection inputFiles;
     protected FileCollection nonInputFiles;
+    protected FileCollection nonInputKeys;
     protected final List<File> outputFiles = new ArrayList<>();
     protected final List<File> outputDirs = new ArrayList<>();
     protected int maxTries = 1;
+    protected List<PathMatcher> keepFromEachTry = null;
+    protected int cpus = 0;
+    protected long memoryMax = 0;
+    protected int ioWeight = 0;
+    // The share of the resource budget held while the command runs, if the task has limits
+    protected SandboxResourceBudget.Allocation allocation = null;
+    // What the last try of the command used, when the task can measure it
+    protected ResourceUsage resourceUsage = null;
+
+    public record ResourceUsage(Duration cpuTime, long peakMemoryBytes) {
+    }
+    protected boolean mountInputs = false;
+    // Mount points in the sandbox and the directories mounted on them
+    protected final Map<Path, Path> mounts = new LinkedHashMap<>();
 
     protected final File marker;
     protected final Path baseDir;
     protected final Path sandbox;
     protected Path workingDirectory;
     private Path outputsRoot;
+    private final Path sandboxStateFile;
+    private final Path outputStoreDir;
+    private List<File> linkedXunitFiles = null;
+    private SandboxExecutionReport report;
 
     public SandboxExecBaseTask() {
         super();
@@ -86,6 +114,7 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         }
         inputFiles = getProject().files();
         nonInputFiles = getProject().files();
+        nonInputKeys = getProject().files();
         marker = new File(getProject().getBuildDir(), getName() + "-" + getClass().getSimpleName() + ".marker");
         outputFiles.add(marker);
         baseDir = getProject().getBuildDir().toPath()
@@ -96,6 +125,8 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         rootProjectPath = getProject().getRootProject().getProjectDir().toPath();
         workingDirectory = sandbox.resolve(rootProjectPath.relativize(currentProjectPath));
         outputsRoot = baseDir.resolve("outputs");
+        sandboxStateFile = baseDir.resolveSibling(getName() + ".sandbox");
+        outputStoreDir = baseDir.resolveSibling(getName() + ".outputs");
     }
 
 
@@ -152,6 +183,7 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         } else if (file instanceof Map) {
             Map<File, FileCollection> fileMap = (Map<File, FileCollection>) file;
             inputFiles = inputFiles.plus(getProject().files(fileMap.keySet()));
+            nonInputKeys = nonInputKeys.plus(getProject().files(fileMap.keySet()));
             nonInputFiles = fileMap.values().stream().reduce(nonInputFiles, FileCollection::plus);
         } else {
             inputFiles = inputFiles.plus(getProject().files(file));
@@ -159,6 +191,7 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
     }
 
     @InputFiles
+    @Incremental
     @PathSensitive(PathSensitivity.RELATIVE)
     public FileCollection getReads() {
         return inputFiles;
@@ -181,6 +214,83 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         this.maxTries = maxTries;
     }
 
+    /**
+     * Only keep the xunit XML files and files matching the given glob patterns, relative to the root project, from
+     * each try in `outputs/try-N` instead of all outputs, so a retry only has to re-run the command.
+     */
+    public void keepFromEachTry(String... patterns) {
+        keepFromEachTry = Arrays.stream(patterns)
+                .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Limit the command to this number of CPUs, taken from the build wide budget.
+     */
+    public void cpus(int cpus) {
+        if (cpus < 1) {
+            throw new GradleException("The number of CPUs needs to be at least 1");
+        }
+        this.cpus = cpus;
+        usesResourceBudget();
+    }
+
+    /**
+     * Limit the memory of the command, e.x. `512m` or `2g`, taken from the build wide budget.
+     */
+    public void memoryMax(String memoryMax) {
+        this.memoryMax = SandboxResourceBudget.parseSize(memoryMax);
+        usesResourceBudget();
+    }
+
+    /**
+     * The relative IO weight of the command, from 1 to 10000 with a default of 100.
+     */
+    public void ioWeight(int ioWeight) {
+        if (ioWeight < 1 || ioWeight > 10000) {
+            throw new GradleException("The IO weight needs to be between 1 and 10000");
+        }
+        this.ioWeight = ioWeight;
+        usesResourceBudget();
+    }
+
+    private void usesResourceBudget() {
+        // Only tasks with limits count towards the max parallel usages of the budget, so Gradle schedules these
+        // without holding back the others
+        final Provider<SandboxResourceBudget> budget = SandboxResourceBudget.register(
+                getProject().getGradle(), getProviderFactory()
+        );
+        getResourceBudget().set(budget);
+        usesService(budget);
+    }
+
+    @Internal
+    public abstract Property<SandboxResourceBudget> getResourceBudget();
+
+    @Internal
+    public abstract Property<SandboxReportService> getReportService();
+
+    /**
+     * Mount input directories read-only into the sandbox instead of linking every file in them.
+     * Only directories passed in as a file tree without any include or exclude patterns are mounted, everything else
+     * is still linked. Falls back to linking everything where the task can't mount.
+     */
+    public void mountInputs(boolean mountInputs) {
+        this.mountInputs = mountInputs;
+    }
+
+    @Internal
+    public boolean isMountInputs() {
+        return mountInputs;
+    }
+
+    /**
+     * @return true if this task can make the directories in `mounts` available to the command.
+     */
+    protected boolean canMount() {
+        return false;
+    }
+
     @OutputFiles
     public List<File> getOutputFiles() {
         return outputFiles;
@@ -189,8 +299,10 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
     @OutputFiles
     @Override
     public Provider<Collection<File>> getXunitFiles() {
+        // Once the task ran we already know what was linked to the outputs root, so we don't have to walk it again
         return getProviderFactory().provider(
-                () -> ((FileTree) getProject().fileTree(outputsRoot.toFile()).include("**/*.xml")).getFiles()
+                () -> linkedXunitFiles != null ? linkedXunitFiles :
+                        ((FileTree) getProject().fileTree(outputsRoot.toFile()).include("**/*.xml")).getFiles()
         );
     }
 
@@ -201,27 +313,88 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
 
     @TaskAction
     public void taskAction() throws IOException {
+        // Tasks that take input changes have all their outputs deleted by Gradle whenever they don't run incrementally,
+        // so only the incremental task types ask for them
+        run(null);
+    }
 
-        // Make sure to delete previous runs so we don't use infinite disk space
-        getFileOperations().delete(baseDir);
+    /**
+     * Run the command, keeping the sandbox of the previous run when the input changes are incremental. The input
+     * changes are null for tasks that always start from a new sandbox.
+     */
+    protected void run(InputChanges inputChanges) throws IOException {
+        report = new SandboxExecutionReport(getPath());
+        try {
+            execute(inputChanges);
+        } finally {
+            report.setIncremental(inputChanges != null && inputChanges.isIncremental());
+            report.setMounts(mounts.size());
+            getReportService().get().add(report, baseDir.resolveSibling(getName() + ".report.json"));
+        }
+    }
+
+    private void execute(InputChanges inputChanges) throws IOException {
+        final long setupStart = System.nanoTime();
+        final Path previousSandbox = readPreviousSandbox();
+        final boolean mount = mountInputs && canMount();
+        if (mountInputs && !mount) {
+            getLogger().warn("Can't mount inputs for {}, linking them into the sandbox instead", getPath());
+        }
+        mounts.clear();
+        // Setting up the mounts doesn't depend on the number of files, so there's nothing to gain from keeping them
+        if (inputChanges != null && inputChanges.isIncremental() && !mount && previousSandbox != null && Files.isDirectory(previousSandbox)) {
+            updateSandbox(previousSandbox, inputChanges);
+        } else {
+            // Make sure to delete previous runs so we don't use infinite disk space
+            getFileOperations().delete(baseDir);
+            linkFilesIntoSandbox(mount, inputChanges);
+        }
+        Files.createDirectories(sandboxStateFile.getParent());
+        Files.writeString(sandboxStateFile, baseDir.relativize(sandbox).toString());
 
         // The result of the command e.x. exit code zero is a valid task output so we store a marker file to have some
         // output to work with caching.
         Path markerFile = sandbox.resolve(rootProjectPath.relativize(marker.toPath()));
         Files.createDirectories(markerFile.getParent());
         Files.write(markerFile, new byte[]{});
-
-        linkFilesIntoSandbox();
+        report.addPhase("setup", setupStart);
 
         ExecResult exec;
         int tryNr = 1;
         do {
             environment("GRADLE_SANDBOX_TRY_NR", String.valueOf(tryNr));
-            exec = doExec();
+            final long tryStart = System.nanoTime();
+            resourceUsage = null;
+            allocation = acquireResources();
+            try {
+                exec = doExec();
+            } finally {
+                if (allocation != null) {
+                    allocation.close();
+                    allocation = null;
+                }
+            }
+            report.addPhase("command", tryStart);
+            report.addTry(new SandboxExecutionReport.Try(
+                    tryNr, exec.getExitValue(), Duration.ofNanos(System.nanoTime() - tryStart).toMillis(),
+                    resourceUsage == null ? null : resourceUsage.cpuTime().toMillis(),
+                    resourceUsage == null ? null : resourceUsage.peakMemoryBytes()
+            ));
+            if (resourceUsage != null) {
+                getLogger().info(
+                        "Command used {} of CPU time and peaked at {} MiB of memory",
+                        resourceUsage.cpuTime(), resourceUsage.peakMemoryBytes() / (1024 * 1024)
+                );
+            }
+            getLogger().info(
+                    "Try {} of {} exited with {} after {}",
+                    tryNr, maxTries, exec.getExitValue(), Duration.ofNanos(System.nanoTime() - tryStart)
+            );
             if (exec.getExitValue() != 0 && tryNr != maxTries) {
                 getLogger().warn("\n== Command failed on try {}, but {} are allowed, going to retry ==\n", tryNr, maxTries);
             }
 
+            final long outputsStart = System.nanoTime();
             if (exec.getExitValue() == 0) {
                 List<Path> missing = Stream.concat(outputFiles.stream(), outputDirs.stream())
                         .map(this::getPathInSandbox)
@@ -238,11 +411,29 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
             }
             final Path outputsTry = outputsRoot.resolve("try-" + tryNr);
             Files.createDirectories(outputsTry);
-            linkFilesOutOfSandbox(outputsTry);
+            final List<Path> outputs = getOutputsInSandbox();
             if (exec.getExitValue() == 0) {
-                linkFilesOutOfSandbox(rootProjectPath);
+                final OutputStore store = OutputStore.open(outputStoreDir);
+                final Set<Path> changed = outputs.parallelStream()
+                        .filter(source ->
+                                !store.isUnchanged(source, rootProjectPath.resolve(sandbox.relativize(source)))
+                        )
+                        .collect(Collectors.toSet());
+                getLogger().info("{} of {} outputs changed", changed.size(), outputs.size());
+                // Unchanged outputs are already in the project, the xunit files are still needed for the try
+                linkFilesOutOfSandbox(outputsTry, getOutputsToKeepFromTry(outputs).stream()
+                        .filter(each -> changed.contains(each) || each.getFileName().toString().endsWith(".xml"))
+                        .collect(Collectors.toList())
+                );
+                linkFilesOutOfSandbox(
+                        rootProjectPath, outputs.stream().filter(changed::contains).collect(Collectors.toList())
+                );
+                store.save();
+                report.addPhase("outputs", outputsStart);
                 break;
             }
+            linkFilesOutOfSandbox(outputsTry, getOutputsToKeepFromTry(outputs));
+            report.addPhase("outputs", outputsStart);
             tryNr++;
         } while (tryNr <= maxTries);
         if (exec.getExitValue() != 0) {
@@ -255,48 +446,170 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
 
     protected abstract ExecResult doExec();
 
+    private SandboxResourceBudget.Allocation acquireResources() {
+        if (cpus == 0 && memoryMax == 0) {
+            return null;
+        }
+        final SandboxResourceBudget.Allocation allocation = getResourceBudget().get().acquire(cpus, memoryMax);
+        getLogger().info("Running on CPUs {}", allocation.getCpuList());
+        return allocation;
+    }
+
     private Path getRandomPath(Path baseDir) {
         Random random = new Random();
+        // At least one level, the base dir also holds the outputs and is where the previous sandbox is replaced from
         return baseDir.resolve(
-                random.ints(random.nextInt(5), 10, 99)
+                random.ints(1 + random.nextInt(4), 10, 99)
                         .boxed()
                         .map(String::valueOf)
                         .collect(Collectors.joining(File.separator))
         );
     }
 
-    private void linkFilesIntoSandbox() {
-        // Gradle's FileTree.getFiles implementation discards empty dirs so we hook into internals a bit and do our own
-        //   listing of directories here to get the empty dirs
-        Stream.of(inputFiles, nonInputFiles)
-                .flatMap(this::getPathStream)
-                .forEach(this::linkPath);
+    private Path readPreviousSandbox() throws IOException {
+        if (!Files.exists(sandboxStateFile)) {
+            return null;
+        }
+        return baseDir.resolve(Files.readString(sandboxStateFile).trim());
     }
 
-    private void linkPath(Path source) {
-        if (!Files.exists(source)) {
-            throw new IllegalArgumentException("No such file:" + source);
+    private void updateSandbox(Path previousSandbox, InputChanges inputChanges) throws IOException {
+        // The outputs of the previous run are linked out of the sandbox, the command must not write to these
+        getFileOperations().delete(outputsRoot);
+        Stream.concat(outputFiles.stream(), outputDirs.stream())
+                .map(each -> previousSandbox.resolve(rootProjectPath.relativize(each.toPath())))
+                .forEach(each -> getFileOperations().delete(each));
+
+        // Move the tree to a new random path so absolute paths from one run still can't be relied on in the next.
+        // Going through a temporary path allows the new one to be inside the previous one or the other way around.
+        if (!previousSandbox.equals(sandbox)) {
+            final Path tmp = baseDir.resolveSibling(baseDir.getFileName() + ".moving");
+            getFileOperations().delete(tmp);
+            Files.move(previousSandbox, tmp);
+            // Sandboxes of older versions could be the base dir itself, in which case it's gone now
+            final File[] leftovers = baseDir.toFile().listFiles(file -> !file.toPath().equals(outputsRoot));
+            if (leftovers != null) {
+                getFileOperations().delete((Object[]) leftovers);
+            }
+            Files.createDirectories(sandbox.getParent());
+            Files.move(tmp, sandbox);
         }
-        try {
-            // We can have inputs from other projects, so we construct paths relative to the root project
-            Path relativeDestination = rootProjectPath.relativize(source);
-            Path destination = sandbox.resolve(relativeDestination);
-            if (Files.isDirectory(source)) {
-                Files.createDirectories(destination);
+
+        final Set<File> nonInputKeyFiles = nonInputKeys.getFiles();
+        final HardlinkFarm farm = new HardlinkFarm();
+        boolean nonInputKeyChanged = false;
+        int changes = 0;
+        for (FileChange change : inputChanges.getFileChanges(getReads())) {
+            changes++;
+            final Path source = change.getFile().toPath();
+            nonInputKeyChanged |= nonInputKeyFiles.contains(change.getFile());
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                getFileOperations().delete(sandbox.resolve(rootProjectPath.relativize(source)));
             } else {
-                if (Files.isSymbolicLink(source)) {
-                    // A relative symbolic link needs to be kept as it can be relied on for behavior,
-                    // e.g. `require` in some versions of node seems to care.
-                    // since we keep the directory structure these should continue to work
-                    Files.createDirectories(destination.getParent());
-                    Files.copy(source, destination, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
-                } else {
-                    createHardlink(source, destination);
+                linkPath(farm, source, change.getFileType());
+            }
+        }
+        // Non input files are not tracked, but are described by the keys they were passed in with to `reads`
+        if (nonInputKeyChanged) {
+            getRoots(nonInputFiles)
+                    .forEach(root -> getFileOperations().delete(sandbox.resolve(rootProjectPath.relativize(root))));
+            getPathStream(nonInputFiles).forEach(path -> linkPath(farm, path));
+        }
+        report.addLinks("inputs", farm.build(getLogger(), "into the sandbox"));
+        getLogger().info("Updated sandbox for {} changed inputs", changes);
+    }
+
+    private Stream<Path> getRoots(FileCollection fileCollection) {
+        if (fileCollection instanceof UnionFileCollection) {
+            return ((UnionFileCollection) fileCollection).getSources().stream().flatMap(this::getRoots);
+        } else if (fileCollection instanceof ConfigurableFileTree) {
+            return Stream.of(((ConfigurableFileTree) fileCollection).getDir().toPath());
+        } else {
+            return fileCollection.getFiles().stream().map(File::toPath);
+        }
+    }
+
+    private void linkFilesIntoSandbox(boolean mount, InputChanges inputChanges) {
+        final HardlinkFarm farm = new HardlinkFarm();
+        final List<FileCollection> linkedInputs = (mount ? addMounts(inputFiles) : Stream.of(inputFiles))
+                .collect(Collectors.toList());
+        if (inputChanges == null || inputChanges.isIncremental()) {
+            // Gradle's FileTree.getFiles implementation discards empty dirs so we hook into internals a bit and do our
+            //   own listing of directories here to get the empty dirs
+            linkedInputs.stream()
+                    .flatMap(this::getPathStream)
+                    .forEach(path -> linkPath(farm, path));
+        } else {
+            // Gradle already walked the inputs, empty dirs included, to fingerprint them and reports all of them as
+            // added when not running incrementally, so there's no need to walk these again.
+            for (FileChange change : inputChanges.getFileChanges(getReads())) {
+                final Path source = change.getFile().toPath();
+                if (mounts.values().stream().noneMatch(source::startsWith)) {
+                    linkPath(farm, source, change.getFileType());
                 }
             }
+        }
+        // Non input files are not fingerprinted, so these always need to be walked
+        (mount ? addMounts(nonInputFiles) : Stream.of(nonInputFiles))
+                .flatMap(this::getPathStream)
+                .forEach(path -> linkPath(farm, path));
+        // A directory within one that's already mounted is visible through the outer mount
+        final List<Path> nested = mounts.keySet().stream()
+                .filter(each -> mounts.keySet().stream().anyMatch(other -> !other.equals(each) && each.startsWith(other)))
+                .collect(Collectors.toList());
+        nested.forEach(mounts::remove);
+        // Create mount points, the mounts themselves are set up by the task when running the command
+        mounts.keySet().forEach(farm::directory);
+        report.addLinks("inputs", farm.build(getLogger(), "into the sandbox"));
+        if (!mounts.isEmpty()) {
+            getLogger().info("Mounting {} into the sandbox", mounts.values());
+        }
+    }
+
+    /**
+     * Records the directories of file trees that can be mounted and returns the collections that still need to be linked.
+     */
+    private Stream<FileCollection> addMounts(FileCollection fileCollection) {
+        if (fileCollection instanceof UnionFileCollection) {
+            return ((UnionFileCollection) fileCollection).getSources().stream().flatMap(this::addMounts);
+        } else if (fileCollection instanceof ConfigurableFileTree tree &&
+                tree.getIncludes().isEmpty() && tree.getExcludes().isEmpty() && tree.getDir().isDirectory() &&
+                // Mounts are read-only, so the command couldn't create outputs in them
+                Stream.concat(outputFiles.stream(), outputDirs.stream())
+                        .noneMatch(output -> output.toPath().startsWith(tree.getDir().toPath()))
+        ) {
+            final Path dir = tree.getDir().toPath();
+            mounts.put(sandbox.resolve(rootProjectPath.relativize(dir)), dir);
+            return Stream.empty();
+        } else {
+            return Stream.of(fileCollection);
+        }
+    }
+
+    private void linkPath(HardlinkFarm farm, Path source) {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("No such file:" + source, e);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        linkPath(farm, source, attributes.isDirectory() ? FileType.DIRECTORY : FileType.FILE);
+    }
+
+    private void linkPath(HardlinkFarm farm, Path source, FileType type) {
+        if (type == FileType.MISSING) {
+            throw new IllegalArgumentException("No such file:" + source);
+        }
+        // We can have inputs from other projects, so we construct paths relative to the root project
+        Path relativeDestination = rootProjectPath.relativize(source);
+        Path destination = sandbox.resolve(relativeDestination);
+        if (type == FileType.DIRECTORY) {
+            farm.directory(destination);
+        } else {
+            farm.link(source, destination);
+        }
     }
 
     private Stream<Path> getPathStream(FileCollection fileCollection) {
@@ -312,7 +625,42 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         }
     }
 
-    private void linkFilesOutOfSandbox(Path outputRoot) {
+    /**
+     * Lists the files in the sandbox that are outputs, walking each output directory once for all destinations.
+     */
+    private List<Path> getOutputsInSandbox() {
+        return Stream.concat(outputFiles.stream(), outputDirs.stream())
+                .map(this::getPathInSandbox)
+                // We already check for all outputs to exist in case the command is successful, but we need to skip
+                // non existing ones here to account for missing files in case the command failed so we at least get
+                // some of the outputs.
+                .filter(Files::exists)
+                .flatMap(each -> {
+                    if (!Files.isDirectory(each)) {
+                        return Stream.of(each);
+                    }
+                    // Recurse into directories to get all output files
+                    try (Stream<Path> walk = Files.walk(each)) {
+                        return walk.filter(path -> !Files.isDirectory(path)).collect(Collectors.toList()).stream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to list outputs in " + each, e);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    private List<Path> getOutputsToKeepFromTry(List<Path> outputs) {
+        if (keepFromEachTry == null) {
+            return outputs;
+        }
+        return outputs.stream()
+                .filter(each -> each.getFileName().toString().endsWith(".xml") ||
+                        keepFromEachTry.stream().anyMatch(matcher -> matcher.matches(sandbox.relativize(each)))
+                )
+                .collect(Collectors.toList());
+    }
+
+    private void linkFilesOutOfSandbox(Path outputRoot, List<Path> outputs) {
         List<Path> incorrectFiles = outputFiles.stream()
                 .map(this::getPathInSandbox)
                 .filter(Files::isDirectory)
@@ -334,31 +682,24 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
             throw new IllegalArgumentException(errorMessage);
         }
 
-        Stream.concat(outputFiles.stream(), outputDirs.stream())
-                .map(this::getPathInSandbox)
-                // Recurse into directories to get all output files
-                .map(each -> {
-                    if (Files.isDirectory(each)) {
-                        return getProject().fileTree(each);
-                    } else {
-                        return getProject().files(each);
-                    }
-                })
-                .flatMap(each -> each.getFiles().stream())
-                .map(File::toPath)
-                // We already check for all outputs to exist in case the command is successful, but we need to skip
-                // non existing ones here to account for missing files in case the command failed so we at least get
-                // some of the outputs.
-                .filter(Files::exists)
-                .forEach(source -> {
-                    // we converted the output paths to point to the sandbox, so we have to work back the destination outside of it
-                    Path relativeDestination = sandbox.relativize(source);
-                    Path destination = outputRoot.resolve(relativeDestination);
-                    if (Files.isDirectory(destination)) {
-                        throw new IllegalArgumentException("Unexpected directory: " + source);
-                    }
-                    createHardlink(source, destination);
-                });
+        final HardlinkFarm farm = new HardlinkFarm();
+        final boolean collectXunitFiles = outputRoot.startsWith(outputsRoot);
+        if (collectXunitFiles && linkedXunitFiles == null) {
+            linkedXunitFiles = new ArrayList<>();
+        }
+        outputs.forEach(source -> {
+            // we converted the output paths to point to the sandbox, so we have to work back the destination outside of it
+            Path relativeDestination = sandbox.relativize(source);
+            Path destination = outputRoot.resolve(relativeDestination);
+            if (Files.isDirectory(destination)) {
+                throw new IllegalArgumentException("Unexpected directory: " + source);
+            }
+            farm.link(source, destination);
+            if (collectXunitFiles && destination.getFileName().toString().endsWith(".xml")) {
+                linkedXunitFiles.add(destination.toFile());
+            }
+        });
+        report.addLinks("outputs", farm.build(getLogger(), "out of the sandbox to " + outputRoot));
     }
 
     private Path getPathInSandbox(File each) {
@@ -366,28 +707,4 @@ public abstract class SandboxExecBaseTask extends DefaultTask implements XunitCr
         return sandbox.resolve(relativeDestination);
     }
 
-    private void createHardlink(Path source, Path destination) {
-        if (Files.exists(destination)) {
-            try {
-                Files.delete(destination);
-            } catch (IOException e) {
-                throw new UncheckedIOException("Can't remove existing file " + destination, e);
-            }
-        }
-        try {
-            Files.createDirectories(destination.getParent());
-        } catch (IOException e) {
-            throw new UncheckedIOException("Can't create directory " + destination.getParent(), e);
-        }
-        try {
-            Files.createLink(destination, source);
-        } catch (IOException e) {
-            // Note does not work for network drives, e.g. Vagrant
-            throw new UncheckedIOException(
-                    "Failed to create hard link " + destination + " pointing to " + source,
-                    e
-            );
-        }
-    }
-
 }
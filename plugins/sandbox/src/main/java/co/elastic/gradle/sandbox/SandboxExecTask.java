@@ -18,6 +18,7 @@
  */
 package co.elastic.gradle.sandbox;
 
+import co.elastic.gradle.utils.OS;
 import co.elastic.gradle.utils.docker.DockerUtils;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
@@ -25,12 +26,15 @@ import org.gradle.api.Task;
 import org.gradle.api.tasks.*;
 import org.gradle.process.ExecResult;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -40,6 +44,12 @@ abstract public class SandboxExecTask extends SandboxExecBaseTask {
     protected final List<File> runs = new ArrayList<>();
     private final Path pathDir;
     private final Set<String> systemBinaries = new HashSet<>();
+    private static final Duration CGROUP_KILL_TIMEOUT = Duration.ofSeconds(10);
+    // Inside a user namespace these flags of the mount a bind mount comes from are locked, re-mounting without them
+    // fails
+    private static final Set<String> LOCKED_MOUNT_FLAGS = Set.of(
+            "nosuid", "nodev", "noexec", "noatime", "nodiratime", "relatime"
+    );
 
     public SandboxExecTask() {
         super();
@@ -118,14 +128,285 @@ abstract public class SandboxExecTask extends SandboxExecBaseTask {
         Map<String, String> env = new HashMap<>(environment);
         env.put("PATH", pathDir.toAbsolutePath().toString());
 
-        // Run this with the docker utils to benefit from the docker for mac workaround in case we are running docker or
-        // docker-compose.
-        return new DockerUtils(getExecOperations()).exec(spec -> {
-            spec.setWorkingDir(workingDirectory);
-            spec.setEnvironment(env);
-            spec.setCommandLine(commandLine);
-            spec.setIgnoreExitValue(true);
-        });
+        final List<String> command = mounts.isEmpty() ? commandLine : withMounts(mounts, commandLine);
+        final Path cgroup = createCgroup();
+        // Without a cgroup to account for it, the usage of the command is sampled from /proc
+        final ProcessTreeUsage usage = cgroup == null && ProcessTreeUsage.isSupported() ?
+                new ProcessTreeUsage(getTemporaryDir().toPath().resolve("command.pid")) : null;
+        try {
+            // Run this with the docker utils to benefit from the docker for mac workaround in case we are running docker or
+            // docker-compose.
+            return new DockerUtils(getExecOperations()).exec(spec -> {
+                spec.setWorkingDir(workingDirectory);
+                spec.setEnvironment(env);
+                if (cgroup != null) {
+                    spec.setCommandLine(inCgroup(cgroup, command));
+                } else if (usage != null) {
+                    spec.setCommandLine(usage.wrap(resolveSystemBinary("sh"), pinned(command)));
+                } else {
+                    spec.setCommandLine(pinned(command));
+                }
+                spec.setIgnoreExitValue(true);
+            });
+        } finally {
+            if (usage != null) {
+                usage.close();
+                resourceUsage = usage.getUsage();
+            }
+            if (cgroup != null) {
+                removeCgroup(cgroup);
+            }
+        }
+    }
+
+    /**
+     * Creates a cgroup for the command with the limits of the task in the cgroup delegated to the build.
+     *
+     * @return the cgroup or null if the task has no limits or there's no cgroup configured
+     */
+    private Path createCgroup() {
+        if (allocation == null && ioWeight == 0) {
+            return null;
+        }
+        if (!getResourceBudget().get().getCgroup().isPresent()) {
+            if (memoryMax > 0 || ioWeight > 0) {
+                // CPUs can still be pinned with taskset, but memory and IO can only be limited by a cgroup
+                getLogger().warn(
+                        "The memory and IO limits of {} are not enforced, set {} to a cgroup v2 directory delegated " +
+                        "to the build to enforce them",
+                        getPath(), SandboxResourceBudget.CGROUP_PROPERTY
+                );
+            }
+            return null;
+        }
+        final Path cgroup = Paths.get(getResourceBudget().get().getCgroup().get())
+                .resolve("sandbox-" + getPath().replace(':', '_') + "-" + UUID.randomUUID());
+        try {
+            Files.createDirectory(cgroup);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Failed to create cgroup " + cgroup + ", check that " + SandboxResourceBudget.CGROUP_PROPERTY +
+                    " points to a cgroup v2 directory delegated to the build",
+                    e
+            );
+        }
+        if (allocation != null && cpus > 0) {
+            writeCgroupFile(cgroup, "cpu.max", (allocation.getCpus().size() * 100000) + " 100000");
+            writeCgroupFile(cgroup, "cpuset.cpus", allocation.getCpuList());
+        }
+        if (memoryMax > 0) {
+            writeCgroupFile(cgroup, "memory.max", String.valueOf(memoryMax));
+        }
+        if (ioWeight > 0) {
+            writeCgroupFile(cgroup, "io.weight", "default " + ioWeight);
+        }
+        return cgroup;
+    }
+
+    private void writeCgroupFile(Path cgroup, String name, String value) {
+        final Path file = cgroup.resolve(name);
+        if (!Files.exists(file)) {
+            // The controller isn't enabled in `cgroup.subtree_control` of the parent
+            getLogger().warn("Can't set {} for {}, the controller is not available in {}", name, getPath(), cgroup.getParent());
+            return;
+        }
+        try {
+            Files.writeString(file, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + value + " to " + file, e);
+        }
+    }
+
+    private List<String> inCgroup(Path cgroup, List<String> commandLine) {
+        // Processes started by the command are placed in the same cgroup as it
+        final List<String> result = new ArrayList<>(List.of(
+                resolveSystemBinary("sh").toString(), "-c", "echo $$ > \"$1/cgroup.procs\"\nshift\nexec \"$@\"\n",
+                "sandbox", cgroup.toString()
+        ));
+        result.addAll(commandLine);
+        return result;
+    }
+
+    private List<String> pinned(List<String> commandLine) {
+        if (allocation == null || allocation.getCpus().isEmpty() || OS.current() != OS.LINUX) {
+            return commandLine;
+        }
+        // Without a cgroup we can still pin the command to its CPUs, but not limit its memory
+        final Path taskset;
+        try {
+            taskset = resolveSystemBinary("taskset");
+        } catch (GradleException e) {
+            getLogger().info("Not pinning {} to CPUs: {}", getPath(), e.getMessage());
+            return commandLine;
+        }
+        final List<String> result = new ArrayList<>(List.of(taskset.toString(), "-c", allocation.getCpuList()));
+        result.addAll(commandLine);
+        return result;
+    }
+
+    private void removeCgroup(Path cgroup) {
+        try {
+            resourceUsage = new ResourceUsage(
+                    Duration.of(readCgroupStat(cgroup.resolve("cpu.stat"), "usage_usec"), ChronoUnit.MICROS),
+                    Files.exists(cgroup.resolve("memory.peak")) ?
+                            Long.parseLong(Files.readString(cgroup.resolve("memory.peak")).trim()) : -1
+            );
+            // Processes the command left running would keep the cgroup from being removed. Killing is asynchronous,
+            // so wait for them to be gone.
+            if (Files.exists(cgroup.resolve("cgroup.kill"))) {
+                Files.writeString(cgroup.resolve("cgroup.kill"), "1");
+            }
+            final long deadline = System.nanoTime() + CGROUP_KILL_TIMEOUT.toNanos();
+            while (isPopulated(cgroup)) {
+                if (System.nanoTime() > deadline) {
+                    getLogger().warn("Processes in cgroup {} are still running, it can't be removed", cgroup);
+                    return;
+                }
+                Thread.sleep(10);
+            }
+            Files.delete(cgroup);
+        } catch (IOException e) {
+            getLogger().warn("Failed to clean up cgroup {}", cgroup, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLogger().warn("Interrupted while cleaning up cgroup {}", cgroup);
+        }
+    }
+
+    private static boolean isPopulated(Path cgroup) throws IOException {
+        final Path events = cgroup.resolve("cgroup.events");
+        return Files.exists(events) && readCgroupStat(events, "populated") != 0;
+    }
+
+    private static long readCgroupStat(Path file, String key) throws IOException {
+        try (Stream<String> lines = Files.lines(file)) {
+            return lines
+                    .filter(line -> line.startsWith(key + " "))
+                    .mapToLong(line -> Long.parseLong(line.substring(key.length() + 1).trim()))
+                    .findFirst()
+                    .orElse(0);
+        }
+    }
+
+    @Override
+    protected boolean canMount() {
+        // Mounting without privileges needs a user namespace. The ones created by `unshare` go away with the command,
+        // taking the mounts with them, so nothing needs to be cleaned up.
+        if (OS.current() != OS.LINUX) {
+            return false;
+        }
+        try {
+            final Path maxUserNamespaces = Paths.get("/proc/sys/user/max_user_namespaces");
+            if (Files.exists(maxUserNamespaces) && Files.readString(maxUserNamespaces).trim().equals("0")) {
+                return false;
+            }
+            resolveSystemBinary("unshare");
+            resolveSystemBinary("mount");
+            resolveSystemBinary("sh");
+            return canRemount();
+        } catch (IOException | GradleException e) {
+            getLogger().info("Can't mount inputs for {}: {}", getPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Try a read only bind mount in the build directory, e.g. security modules can still deny it, and the command
+     * would fail rather than falling back to linking.
+     */
+    private boolean canRemount() throws IOException {
+        final Path probe = Files.createTempDirectory(getTemporaryDir().toPath(), "mount-probe");
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final ExecResult result = getExecOperations().exec(spec -> {
+                spec.setCommandLine(withMounts(Map.of(probe, probe), List.of(resolveSystemBinary("true").toString())));
+                spec.setStandardOutput(output);
+                spec.setErrorOutput(output);
+                spec.setIgnoreExitValue(true);
+            });
+            if (result.getExitValue() != 0) {
+                getLogger().info("Can't mount inputs for {}: {}", getPath(), output.toString().trim());
+            }
+            return result.getExitValue() == 0;
+        } finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    private List<String> withMounts(Map<Path, Path> mounts, List<String> commandLine) {
+        // Bind mounts can't be made read-only when created, so these are re-mounted. Mount points are passed as
+        // arguments to avoid having to quote them.
+        final List<MountInfo> mountInfo = MountInfo.read();
+        final StringBuilder script = new StringBuilder("set -e\n");
+        final List<String> arguments = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<Path, Path> mount : mounts.entrySet()) {
+            arguments.add(mount.getValue().toString());
+            arguments.add(mount.getKey().toString());
+            script.append(String.format(
+                    "%1$s --bind \"${%2$d}\" \"${%3$d}\"\n%1$s -o %4$s \"${%3$d}\"\n",
+                    resolveSystemBinary("mount"), index + 1, index + 2,
+                    String.join(",", remountOptions(mountInfo, mount.getValue()))
+            ));
+            index += 2;
+        }
+        script.append(String.format("shift %d\nexec \"$@\"\n", index));
+
+        final List<String> result = new ArrayList<>(List.of(
+                resolveSystemBinary("unshare").toString(), "--user", "--map-root-user", "--mount",
+                resolveSystemBinary("sh").toString(), "-c", script.toString(), "sandbox"
+        ));
+        result.addAll(arguments);
+        result.addAll(commandLine);
+        return result;
+    }
+
+    private List<String> remountOptions(List<MountInfo> mountInfo, Path source) {
+        final List<String> options = new ArrayList<>(List.of("remount", "bind", "ro"));
+        Path path;
+        try {
+            path = source.toRealPath();
+        } catch (IOException e) {
+            path = source.toAbsolutePath();
+        }
+        // The last one wins when mounts are stacked on the same mount point
+        MountInfo containing = null;
+        for (MountInfo each : mountInfo) {
+            if (path.startsWith(each.mountPoint()) &&
+                (containing == null || each.mountPoint().getNameCount() >= containing.mountPoint().getNameCount())) {
+                containing = each;
+            }
+        }
+        if (containing != null) {
+            containing.options().stream().filter(LOCKED_MOUNT_FLAGS::contains).forEach(options::add);
+        }
+        return options;
+    }
+
+    private record MountInfo(Path mountPoint, List<String> options) {
+        static List<MountInfo> read() {
+            try (Stream<String> lines = Files.lines(Paths.get("/proc/self/mountinfo"))) {
+                return lines.map(line -> line.split(" "))
+                        .map(fields -> new MountInfo(Paths.get(unescape(fields[4])), List.of(fields[5].split(","))))
+                        .toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Spaces and other special characters in mount points are escaped as octal, e.g. `\040`
+        private static String unescape(String field) {
+            final StringBuilder result = new StringBuilder();
+            for (int i = 0; i < field.length(); i++) {
+                if (field.charAt(i) == '\\' && i + 3 < field.length()) {
+                    result.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                    i += 3;
+                } else {
+                    result.append(field.charAt(i));
+                }
+            }
+            return result.toString();
+        }
     }
 
     private void createSandboxPathDir() {
@@ -0,0 +1,110 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings and counters of a single sandbox task execution, written as JSON next to the sandbox and collected in the
+ * build wide summary by {@link SandboxReportService}.
+ */
+public class SandboxExecutionReport {
+
+    public record Links(long files, long directories, long bytes, long millis) {
+        Links plus(HardlinkFarm.Stats stats) {
+            return new Links(
+                    files + stats.files(),
+                    directories + stats.directories(),
+                    bytes + stats.bytes(),
+                    millis + stats.duration().toMillis()
+            );
+        }
+    }
+
+    public record Try(int number, int exitValue, long millis, Long cpuTimeMillis, Long peakMemoryBytes) {
+    }
+
+    private static final Links NO_LINKS = new Links(0, 0, 0, 0);
+
+    private final String task;
+    private boolean incremental = false;
+    private int mounts = 0;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Links> links = new LinkedHashMap<>();
+    private final List<Try> tries = new ArrayList<>();
+
+    public SandboxExecutionReport(String task) {
+        this.task = task;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public int getMounts() {
+        return mounts;
+    }
+
+    /**
+     * Milliseconds spent in each phase: setting up the sandbox, running the command and collecting the outputs.
+     */
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    public Map<String, Links> getLinks() {
+        return links;
+    }
+
+    public List<Try> getTries() {
+        return tries;
+    }
+
+    void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    void setMounts(int mounts) {
+        this.mounts = mounts;
+    }
+
+    void addPhase(String phase, long startNanos) {
+        phases.merge(phase, Duration.ofNanos(System.nanoTime() - startNanos).toMillis(), Long::sum);
+    }
+
+    void addLinks(String kind, HardlinkFarm.Stats stats) {
+        links.put(kind, links.getOrDefault(kind, NO_LINKS).plus(stats));
+    }
+
+    void addTry(Try attempt) {
+        tries.add(attempt);
+    }
+
+    long getTotalMillis() {
+        return phases.values().stream().mapToLong(Long::longValue).sum();
+    }
+}
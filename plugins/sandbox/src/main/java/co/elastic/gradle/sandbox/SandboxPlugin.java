@@ -21,10 +21,12 @@ package co.elastic.gradle.sandbox;
 import co.elastic.gradle.lifecycle.LifecyclePlugin;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.tasks.TaskProvider;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.util.stream.Collectors;
 
 public abstract class SandboxPlugin implements Plugin<Project> {
@@ -46,9 +48,24 @@ public abstract class SandboxPlugin implements Plugin<Project> {
                         )
                 )
         );
-        target.getTasks().withType(SandboxDockerExecTask.class).configureEach(task ->
-                task.dependsOn(resolveSandboxDockerDependencies)
+        final Provider<SandboxReportService> reports = SandboxReportService.register(
+                target.getGradle(),
+                new File(target.getRootProject().getBuildDir(), "reports/sandbox/summary.json")
         );
+        target.getTasks().withType(SandboxExecBaseTask.class).configureEach(task -> {
+            task.getReportService().set(reports);
+            task.usesService(reports);
+        });
+
+        final Provider<SandboxContainerPool> containerPool = SandboxContainerPool.register(
+                target.getGradle(),
+                new File(target.getRootProject().getBuildDir(), "sandbox-pool")
+        );
+        target.getTasks().withType(SandboxDockerExecTask.class).configureEach(task -> {
+            task.dependsOn(resolveSandboxDockerDependencies);
+            task.getContainerPool().set(containerPool);
+            task.usesService(containerPool);
+        });
 
         LifecyclePlugin.resolveAllDependencies(target, resolveSandboxDockerDependencies);
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the reports of all sandbox tasks that ran in the build and writes a summary of them when the build
+ * finishes, so the build's sandbox overhead can be tracked over time.
+ */
+public abstract class SandboxReportService implements BuildService<SandboxReportService.Params>, AutoCloseable {
+
+    public static final String NAME = "sandboxReports";
+
+    private static final Logger logger = Logging.getLogger(SandboxReportService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public interface Params extends BuildServiceParameters {
+        RegularFileProperty getSummaryFile();
+    }
+
+    public static Provider<SandboxReportService> register(Gradle gradle, File summaryFile) {
+        return gradle.getSharedServices().registerIfAbsent(
+                NAME,
+                SandboxReportService.class,
+                spec -> spec.getParameters().getSummaryFile().set(summaryFile)
+        );
+    }
+
+    private final Queue<SandboxExecutionReport> reports = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Writes the report of a task and adds it to the summary.
+     */
+    public void add(SandboxExecutionReport report, Path reportFile) {
+        write(report, reportFile);
+        reports.add(report);
+    }
+
+    @Override
+    public void close() {
+        if (reports.isEmpty()) {
+            return;
+        }
+        final List<SandboxExecutionReport> all = new ArrayList<>(reports);
+        final Map<String, Long> phases = new LinkedHashMap<>();
+        final Map<String, SandboxExecutionReport.Links> links = new LinkedHashMap<>();
+        all.forEach(report -> {
+            report.getPhases().forEach((phase, millis) -> phases.merge(phase, millis, Long::sum));
+            report.getLinks().forEach((kind, stats) -> links.merge(kind, stats, (a, b) -> new SandboxExecutionReport.Links(
+                    a.files() + b.files(),
+                    a.directories() + b.directories(),
+                    a.bytes() + b.bytes(),
+                    a.millis() + b.millis()
+            )));
+        });
+        all.sort(Comparator.comparingLong(SandboxExecutionReport::getTotalMillis).reversed());
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("tasks", all.size());
+        summary.put("phases", phases);
+        summary.put("links", links);
+        summary.put("retriedTasks", all.stream().filter(each -> each.getTries().size() > 1).count());
+        summary.put("reports", all);
+        final Path summaryFile = getParameters().getSummaryFile().get().getAsFile().toPath();
+        write(summary, summaryFile);
+        logger.info("Wrote the summary of {} sandbox tasks to {}", all.size(), summaryFile);
+    }
+
+    private static void write(Object value, Path file) {
+        try {
+            Files.createDirectories(file.getParent());
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write sandbox report " + file, e);
+        }
+    }
+}
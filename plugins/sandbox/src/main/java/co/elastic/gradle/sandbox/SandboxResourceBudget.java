@@ -0,0 +1,230 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.gradle.sandbox;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Build wide budget of CPUs and memory that sandbox tasks with resource limits take their share from.
+ * <p>
+ * Without it parallel sandbox tasks each compete for all cores and memory of the machine. Tasks with limits use the
+ * service, which is registered with {@code maxParallelUsages}, so Gradle doesn't start more of them than there are CPUs
+ * and runs other work instead. Gradle counts each task as one usage regardless of what it asked for, so a task whose
+ * CPUs or memory are held by other sandbox tasks waits for these to be released before running its command. A task
+ * that asks for a number of CPUs is handed specific ones that no other sandbox task holds, so these can be pinned.
+ */
+public abstract class SandboxResourceBudget implements BuildService<SandboxResourceBudget.Params> {
+
+    public static final String NAME = "sandboxResourceBudget";
+    public static final String CPUS_PROPERTY = "co.elastic.sandbox.cpus";
+    public static final String MEMORY_PROPERTY = "co.elastic.sandbox.memory";
+    public static final String CGROUP_PROPERTY = "co.elastic.sandbox.cgroup";
+    public static final String MAX_PARALLEL_PROPERTY = "co.elastic.sandbox.maxParallel";
+
+    private static final Logger logger = Logging.getLogger(SandboxResourceBudget.class);
+
+    public interface Params extends BuildServiceParameters {
+        Property<Integer> getCpus();
+
+        Property<Long> getMemory();
+
+        /**
+         * A cgroup v2 directory delegated to the build that sandbox tasks create their cgroups in.
+         */
+        Property<String> getCgroup();
+    }
+
+    public static Provider<SandboxResourceBudget> register(Gradle gradle, ProviderFactory providers) {
+        return gradle.getSharedServices().registerIfAbsent(
+                NAME,
+                SandboxResourceBudget.class,
+                spec -> {
+                    final Provider<Integer> cpus = providers.gradleProperty(CPUS_PROPERTY).map(Integer::parseInt)
+                            .orElse(Runtime.getRuntime().availableProcessors());
+                    spec.getParameters().getCpus().set(cpus);
+                    // Tasks with limits ask for at least one CPU, so there's no point in running more of them
+                    spec.getMaxParallelUsages().set(
+                            providers.gradleProperty(MAX_PARALLEL_PROPERTY).map(Integer::parseInt).orElse(cpus)
+                    );
+                    spec.getParameters().getMemory().set(
+                            providers.gradleProperty(MEMORY_PROPERTY).map(SandboxResourceBudget::parseSize)
+                    );
+                    spec.getParameters().getCgroup().set(providers.gradleProperty(CGROUP_PROPERTY));
+                }
+        );
+    }
+
+    /**
+     * The share of the budget held by one command, returned when closed.
+     */
+    public class Allocation implements AutoCloseable {
+        private final List<Integer> indexes;
+        private final List<Integer> cpus;
+        private final long memory;
+
+        private Allocation(List<Integer> indexes, List<Integer> cpus, long memory) {
+            this.indexes = indexes;
+            this.cpus = cpus;
+            this.memory = memory;
+        }
+
+        public List<Integer> getCpus() {
+            return cpus;
+        }
+
+        public String getCpuList() {
+            return String.join(",", cpus.stream().map(String::valueOf).toList());
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private final List<Integer> cpuIds = allowedCpus();
+    // Whether each CPU index of the budget is held by an allocation
+    private boolean[] heldCpus = null;
+    private long usedMemory = 0;
+
+    /**
+     * Takes the requested number of CPUs and bytes of memory from the budget, waiting for other sandbox tasks to
+     * release them if these are not available. Requests larger than the budget are capped to it.
+     */
+    public synchronized Allocation acquire(int cpus, long memory) {
+        final int totalCpus = getParameters().getCpus().get();
+        if (heldCpus == null) {
+            heldCpus = new boolean[totalCpus];
+        }
+        final int wantedCpus = Math.min(cpus, totalCpus);
+        final long totalMemory = getParameters().getMemory().getOrElse(Long.MAX_VALUE);
+        final long wantedMemory = Math.min(memory, totalMemory);
+        if (freeCpus() < wantedCpus || wantedMemory > totalMemory - usedMemory) {
+            logger.info(
+                    "Waiting for {} CPUs and {} bytes of memory from the sandbox budget held by other tasks",
+                    wantedCpus, wantedMemory
+            );
+            try {
+                while (freeCpus() < wantedCpus || wantedMemory > totalMemory - usedMemory) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while waiting for CPUs and memory from the sandbox budget", e);
+            }
+        }
+        final List<Integer> indexes = IntStream.range(0, totalCpus).boxed()
+                .filter(index -> !heldCpus[index])
+                .limit(wantedCpus)
+                .toList();
+        indexes.forEach(index -> heldCpus[index] = true);
+        usedMemory += wantedMemory;
+        // The indexes in the budget are mapped to the CPUs the build is allowed to run on. A budget larger than
+        // these wraps around, and CPUs are shared again.
+        final List<Integer> allocatedCpus = indexes.stream().map(index -> cpuIds.get(index % cpuIds.size())).distinct().toList();
+        return new Allocation(indexes, allocatedCpus, wantedMemory);
+    }
+
+    private int freeCpus() {
+        return (int) IntStream.range(0, heldCpus.length).filter(index -> !heldCpus[index]).count();
+    }
+
+    private synchronized void release(Allocation allocation) {
+        allocation.indexes.forEach(index -> heldCpus[index] = false);
+        usedMemory -= allocation.memory;
+        notifyAll();
+    }
+
+    /**
+     * The CPUs this process may run on, which aren't necessarily numbered from 0 e.x. in a container.
+     */
+    private static List<Integer> allowedCpus() {
+        final Path status = Paths.get("/proc/self/status");
+        if (Files.exists(status)) {
+            try (Stream<String> lines = Files.lines(status)) {
+                final Optional<String> allowed = lines
+                        .filter(line -> line.startsWith("Cpus_allowed_list:"))
+                        .map(line -> line.substring("Cpus_allowed_list:".length()).trim())
+                        .findFirst();
+                if (allowed.isPresent()) {
+                    return parseCpuList(allowed.get());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read allowed CPUs from " + status, e);
+            }
+        }
+        return IntStream.range(0, Runtime.getRuntime().availableProcessors()).boxed().toList();
+    }
+
+    static List<Integer> parseCpuList(String list) {
+        final List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            final String[] bounds = range.trim().split("-");
+            final int from = Integer.parseInt(bounds[0]);
+            final int to = bounds.length > 1 ? Integer.parseInt(bounds[1]) : from;
+            for (int cpu = from; cpu <= to; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    public Provider<String> getCgroup() {
+        return getParameters().getCgroup();
+    }
+
+    /**
+     * Parses sizes like `512m` or `2g` to bytes.
+     */
+    public static long parseSize(String size) {
+        final String value = size.trim().toLowerCase(Locale.ROOT);
+        final long multiplier = switch (value.charAt(value.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+        final String number = multiplier == 1 ? value : value.substring(0, value.length() - 1);
+        try {
+            return Long.parseLong(number) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new GradleException("Invalid size `" + size + "`, expected a number optionally followed by k, m or g", e);
+        }
+    }
+}